@@ -9,10 +9,15 @@ import java.lang.annotation.Target;
 
 /**
  * This annotation is used to configure Data Generators for a test method.
+ * <p>
+ * When present on the test class, the data generators are generated once before the first
+ * test and cleaned once after the last test of the class. This requires the data generator
+ * manager to be registered as a class rule. The data generators of the test methods are
+ * generated on top of the data generators of the class.
  * 
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
-@Target({ElementType.METHOD})
+@Target({ElementType.METHOD, ElementType.TYPE})
 @Retention(RetentionPolicy.RUNTIME)
 public @interface DataGenerator {
 	/**
@@ -0,0 +1,18 @@
+package io.probedock.junitee.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a finder or some of its methods as read only. The queries created through the entity
+ * manager of the finder during a read only call receive the read only hints of the JPA providers.
+ * The providers can then skip the change tracking (clones, snapshots) of the results.
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@Target({ElementType.TYPE, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReadOnly {
+}
@@ -0,0 +1,24 @@
+package io.probedock.junitee.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Mark a data generator as shared across the test classes. A shared data generator is
+ * generated once for all the tests that use it and cleaned when the JVM shuts down, so the
+ * test classes run one after the other reuse the same data. This is useful for reference
+ * data that never changes.
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@Target({ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface SharedDataGenerator {
+	/**
+	 * @return Define if the data must be kept until the JVM shutdown even when no more test uses them,
+	 *         otherwise they are cleaned as soon as the last test that uses them releases them
+	 */
+	boolean keepUntilShutdown() default true;
+}
@@ -1,16 +1,10 @@
 package io.probedock.junitee.dependency;
 
-import io.probedock.junitee.annotations.InjectDataGenerator;
-import io.probedock.junitee.annotations.UseMock;
-
-import java.lang.reflect.Field;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import javax.ejb.EJB;
 import javax.persistence.EntityManager;
-import javax.persistence.PersistenceContext;
 
 /**
  * Utility class to inject objects correctly into an object
@@ -31,7 +25,7 @@ public class DependencyInjector {
 	 * @param injectGenerators Define if the data generators must be injected or not
 	 */
 	public static void inject(Object obj, EntityManager em, boolean injectGenerators) {
-		inject(obj.getClass(), obj, em, new HashMap<String, Object>(), new HashMap<String, Object>(), new HashSet<String>(), obj.getClass().getSimpleName(), injectGenerators);
+		inject(obj, em, new HashMap<String, Object>(), new HashMap<String, Object>(), new HashSet<String>(), obj.getClass().getSimpleName(), injectGenerators);
 	}
 	
 	/**
@@ -46,53 +40,66 @@ public class DependencyInjector {
 	 * When an EJB should be injected, the method take care to reuse an already existing instance. For the data generator, we ensure
 	 * that new instances are created except in the case that the object graph created a circular dependency. In that case, an exception
 	 * is raised. For the entity manager, it will be injected in @EJB and @InjectDataGenerator objects (recursively and across the class hierarchy)
+	 * <p>
+	 * The fields to inject are retrieved from the injection plan of the object class. The plan is built once per class
+	 * and covers the whole class hierarchy.
 	 * 
-	 * @param cl The class of the object to inject (will be super class in recursive calls)
-	 * @param obj The object instance of the class to inject
+	 * @param obj The object instance to inject
 	 * @param em The entity managers to injects
+	 * @param mockRegistry The registry of mocks to use in place of the real implementations
 	 * @param ejbRegistry The registry of EJB to ensure there is no two instances of the same EJB
 	 * @param dgRegistry The data generator to ensure there is no two instances of data generator for a same path
 	 * @param path The path where the injection occur to be able to determine if a circular dependency injection is detected
 	 * @param injectGenerators Define if the data generators must be injected or not
 	 */
-	private static void inject(Class cl, Object obj, EntityManager em, Map<String, Object> mockRegistry, Map<String, Object> ejbRegistry, Set<String> dgRegistry, String path, boolean injectGenerators) {
-		// Inject in the super class fields if any
-		if (cl.getSuperclass() != Object.class) {
-			inject(cl.getSuperclass(), cl.getSuperclass().cast(obj), em, mockRegistry, ejbRegistry, dgRegistry, path, injectGenerators);
+	private static void inject(Object obj, EntityManager em, Map<String, Object> mockRegistry, Map<String, Object> ejbRegistry, Set<String> dgRegistry, String path, boolean injectGenerators) {
+		InjectionPlan injectionPlan;
+		try {
+			injectionPlan = InjectionPlan.forClass(obj.getClass());
+		}
+		catch (DependencyInjectionException die) {
+			throw new RuntimeException(die);
 		}
-		
-		// Get all the declared fields
-		for (Field declaredField : cl.getDeclaredFields()) {
+
+		for (InjectionPlan.InjectionPoint injectionPoint : injectionPlan.getInjectionPoints()) {
+			FieldAccessor accessor = injectionPoint.getAccessor();
+
 			try {
-				if (DependencyInjectorHelper.isNull(declaredField, obj)) {
+				if (accessor.isNull(obj)) {
 					Object declaredFieldObjectInstantiated = null;
 					
 					// Register the possible mocks to use during the chaing invocation
-					if (declaredField.getAnnotation(UseMock.class) != null) {
-						for (Class mockClass : declaredField.getAnnotation(UseMock.class).value()) {
-							DependencyInjectorHelper.instantiateMock(mockClass, mockRegistry);
-						}
+					for (Class mockClass : injectionPoint.getMockClasses()) {
+						DependencyInjectorHelper.instantiateMock(mockClass, mockRegistry);
 					}
 					
-					// Manage the EJB instantiation
-					if (declaredField.getAnnotation(EJB.class) != null) {
-						declaredFieldObjectInstantiated = DependencyInjectorHelper.instantiateEjb(declaredField, mockRegistry, ejbRegistry);
-					} 
-					
-					// Manage the DG instantiation
-					else if (injectGenerators && declaredField.isAnnotationPresent(InjectDataGenerator.class)) {
-						declaredFieldObjectInstantiated = DependencyInjectorHelper.instantiateDataGenerator(declaredField, path, dgRegistry);
-					} 
-					
-					// Manage the EM injection
-					else if (declaredField.isAnnotationPresent(PersistenceContext.class)) {
-						DependencyInjectorHelper.injectField(declaredField, obj, em);
+					switch (injectionPoint.getKind()) {
+						// Manage the EJB instantiation
+						case EJB:
+							declaredFieldObjectInstantiated = DependencyInjectorHelper.instantiateEjb(injectionPoint.getImplementationClass(), mockRegistry, ejbRegistry);
+							break;
+
+						// Manage the DG instantiation
+						case DATA_GENERATOR:
+							if (injectGenerators) {
+								declaredFieldObjectInstantiated = DependencyInjectorHelper.instantiateDataGenerator(
+									injectionPoint.getImplementationClass(), path + "." + accessor.getField().getName(), dgRegistry);
+							}
+							break;
+
+						// Manage the EM injection
+						case PERSISTENCE_CONTEXT:
+							accessor.set(obj, em);
+							break;
+
+						default:
+							break;
 					}
 					
 					// Inject the field and do the injections into it
 					if (declaredFieldObjectInstantiated != null) {
-						DependencyInjectorHelper.injectField(declaredField, obj, declaredFieldObjectInstantiated);
-						inject(declaredFieldObjectInstantiated.getClass()	, declaredFieldObjectInstantiated, em, mockRegistry, ejbRegistry, dgRegistry, path + "." + declaredField.getName(), injectGenerators);
+						accessor.set(obj, declaredFieldObjectInstantiated);
+						inject(declaredFieldObjectInstantiated, em, mockRegistry, ejbRegistry, dgRegistry, path + "." + accessor.getField().getName(), injectGenerators);
 					}
 				}
 			}
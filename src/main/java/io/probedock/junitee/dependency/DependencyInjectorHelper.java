@@ -2,12 +2,11 @@ package io.probedock.junitee.dependency;
 
 import io.probedock.junitee.utils.InflectorHelper;
 import io.probedock.junitee.utils.NoValidClassException;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.Set;
-import javax.annotation.PostConstruct;
 import javax.ejb.Local;
 import javax.ejb.Remote;
 
@@ -32,24 +31,7 @@ public class DependencyInjectorHelper {
 	 * @throws DependencyInjectionException  Any error during the injection
 	 */
 	static void injectField(Field field, Object holder, Object value) throws DependencyInjectionException {
-		// Try to inject the entity manager to the DAO.
-		boolean fieldMustBeChanged = field.isAccessible();
-		if (!fieldMustBeChanged) {
-			field.setAccessible(true);
-		}
-			
-		try {
-			field.set(holder, value);
-		}
-		catch (IllegalAccessException | IllegalArgumentException | SecurityException ex) {
-			throw new DependencyInjectionException("Unable to set the value [" + value + "] on field ["
-				+ field.getName() + "] of the object [" + holder.getClass().getSimpleName() + "].", ex);
-		}
-		finally {
-			if (!fieldMustBeChanged) {
-				field.setAccessible(false);
-			}
-		}
+		FieldAccessor.forField(field).set(holder, value);
 	}
 
 	/**
@@ -69,6 +51,22 @@ public class DependencyInjectorHelper {
 		}		
 	}
 	
+	/**
+	 * Find the empty constructor of an implementation class from a class that is provided
+	 * 
+	 * @param cl The class to get the real implementation class
+	 * @return The empty constructor of the real implementation class
+	 * @throws DependencyInjectionException Unable to find a valid class that can be instantiated
+	 */
+	static Constructor findImplementationConstructor(Class cl) throws DependencyInjectionException {
+		try {
+			return InflectorHelper.retrieveInstantiableConstructor(cl);
+		}
+		catch (NoValidClassException ex) {
+			throw new  DependencyInjectionException("Unable to instantiate a new object from type [" + cl.getCanonicalName() + "]. Maybe there is no empty constructor.", ex);
+		}		
+	}
+	
 	/**
 	 * Get the interface for which the mock should be used
 	 * 
@@ -124,15 +122,13 @@ public class DependencyInjectorHelper {
 	/**
 	 * Instantiate a new EJB instance of a class
 	 * 
-	 * @param ejbField The field that is marked to be injected with an EJB class instance
+	 * @param implementationClass The implementation class of the field that is marked to be injected with an EJB class instance
 	 * @param mockRegistry The register of mocks to inject in place of real implementations
 	 * @param ejbRegistry The EJB registry to reuse existing instance of EJB
 	 * @return The new/reused instance of the EJB ready to be injected
 	 * @throws DependencyInjectionException Error during the instantiation of the new EJB
 	 */
-	static Object instantiateEjb(Field ejbField, Map<String, Object> mockRegistry, Map<String, Object> ejbRegistry) throws DependencyInjectionException {
-		Class implementationClass = findImplementationClass(ejbField.getType());
-		
+	static Object instantiateEjb(Class implementationClass, Map<String, Object> mockRegistry, Map<String, Object> ejbRegistry) throws DependencyInjectionException {
 		if (ejbRegistry.containsKey(implementationClass.getCanonicalName())) {
 			return ejbRegistry.get(implementationClass.getCanonicalName());
 		}
@@ -147,7 +143,7 @@ public class DependencyInjectorHelper {
 					instanceOfImplementationClass = mockRegistry.get(mockInterfaceClass.getCanonicalName());
 				}
 				else {
-					instanceOfImplementationClass = implementationClass.newInstance();
+					instanceOfImplementationClass = findImplementationConstructor(implementationClass).newInstance();
 				}
 				
 				// Invoke the @PostConstruct methods
@@ -158,7 +154,7 @@ public class DependencyInjectorHelper {
 				
 				return instanceOfImplementationClass;
 			}
-			catch (IllegalAccessException | InstantiationException e) {
+			catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
 				throw new DependencyInjectionException("Unable to instantiate the EJB.", e);
 			}
 		}
@@ -171,50 +167,19 @@ public class DependencyInjectorHelper {
 	 * @throws DependencyInjectionException Any error due to the invocation of the post construct methods
 	 */
 	static void invokePostConstruct(Object obj) throws DependencyInjectionException {
-		Class cl = obj.getClass();
-		
-		// Check across the class hierarchy
-		do {
-			// Retrieve the methods
-			for (Method m : cl.getDeclaredMethods()) {
-				// Check if @PostConstruct is present
-				if (m.getAnnotation(PostConstruct.class) != null) {
-					try {
-						boolean isAccessible = m.isAccessible();
-						if (!isAccessible) {
-							m.setAccessible(true);
-						}
-						
-						m.invoke(obj);
-						
-						if (!isAccessible) {
-							m.setAccessible(false);
-						}
-					}
-					catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-						throw new DependencyInjectionException("Unable to call the method " + m.getName() + " on object of class " + 
-							cl.getCanonicalName() + ". @PostConstruct methods must be empty args methods.");
-					}
-				}
-			}
-
-			cl = cl.getSuperclass();
-		} while (cl != Object.class);
+		InjectionPlan.forClass(obj.getClass()).invokePostConstruct(obj);
 	}
 	
 	/**
 	 * Instantiate a new Data Generator instance of a class
 	 * 
-	 * @param generatorField The field that is marked to be injected with a InjectDataGenerator instance
-	 * @param path The current path to detect circular dependency injection
+	 * @param implementationClass The implementation class of the field that is marked to be injected with a InjectDataGenerator instance
+	 * @param currentPath The path of the field to detect circular dependency injection
 	 * @param generatorRegistry The data generator registry to check the circular dependency injection
 	 * @return The new instance of the data generator ready to be injected
 	 * @throws DependencyInjectionException Error during the instantiation of the new Data Generator
 	 */
-	static Object instantiateDataGenerator(Field generatorField, String path, Set<String> generatorRegistry) throws DependencyInjectionException {
-		String currentPath = path + "." + generatorField.getName();
-		Class implementationClass = findImplementationClass(generatorField.getType());
-
+	static Object instantiateDataGenerator(Class implementationClass, String currentPath, Set<String> generatorRegistry) throws DependencyInjectionException {
 		// Check if the path has already been reached
 		if (generatorRegistry.contains(currentPath)) {
 			throw new DependencyInjectionException("The data generator " + implementationClass.getSimpleName() + " already exists for the path: " 
@@ -224,54 +189,13 @@ public class DependencyInjectorHelper {
 		// Create new instance of the data generator
 		else {
 			try {
-				Object instanceOfImplementationClass = implementationClass.newInstance();
+				Object instanceOfImplementationClass = findImplementationConstructor(implementationClass).newInstance();
 				generatorRegistry.add(currentPath);
 				return instanceOfImplementationClass;
 			}
-			catch (IllegalAccessException | InstantiationException e) {
+			catch (IllegalAccessException | InstantiationException | InvocationTargetException e) {
 				throw new DependencyInjectionException("Unable to instantiate the data generator.", e);
 			}
 		}
 	}
-
-	/**
-	 * Retrieve the value of a field on the holder
-	 * 
-	 * @param field The field from which a value must be retrieved
-	 * @param holder The object where the field is
-	 * @return The value of the field from the holder
-	 * @throws DependencyInjectionException When it is not possible to get the value of the field from the holder
-	 */
-	static Object getObject(Field field, Object holder) throws DependencyInjectionException{
-		// Try to inject the entity manager to the DAO.
-		boolean fieldMustBeChanged = field.isAccessible();
-		if (!fieldMustBeChanged) {
-			field.setAccessible(true);
-		}
-		
-		try {
-			return field.get(holder);
-		}
-		catch (IllegalAccessException | IllegalArgumentException e) {
-			throw new DependencyInjectionException(
-				"Unable to get the value on field [" + field.getName() + "] of the object [" + holder.getClass().getSimpleName() + "].", e);
-		}
-		finally {
-			if (!fieldMustBeChanged) {
-				field.setAccessible(false);
-			}
-		}
-	}
-	
-	/**
-	 * Check if a field is null on the holder
-	 * 
-	 * @param field The field to check on the holder
-	 * @param holder The holder where the field is
-	 * @return True if the field has no value (null value), false otherwise
-	 * @throws DependencyInjectionException When it is not possible to retrieve the state of the field
-	 */
-	static boolean isNull(Field field, Object holder) throws DependencyInjectionException {
-		return getObject(field, holder) == null;
-	}
 }
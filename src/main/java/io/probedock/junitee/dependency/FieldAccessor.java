@@ -0,0 +1,191 @@
+package io.probedock.junitee.dependency;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A field accessor compiles a field into a getter and a setter method handles. The
+ * access checks are done once when the accessor is created, then reading and writing
+ * the field are plain method handle invocations.
+ * <p>
+ * The accessors are cached per field. The access checks are suppressed on a private copy of the
+ * field, the field given by the caller is left untouched.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+final class FieldAccessor {
+	/**
+	 * Generic type of the getter handles
+	 */
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+	/**
+	 * Generic type of the setter handles
+	 */
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	/**
+	 * The accessors per field
+	 */
+	private static final ConcurrentMap<Field, FieldAccessor> ACCESSORS = new ConcurrentHashMap<>();
+
+	/**
+	 * The field accessed
+	 */
+	private final Field field;
+
+	/**
+	 * Handle to read the field
+	 */
+	private final MethodHandle getter;
+
+	/**
+	 * Handle to write the field, null when the field cannot be written
+	 */
+	private final MethodHandle setter;
+
+	/**
+	 * Constructor
+	 *
+	 * @param field The field to access
+	 * @throws DependencyInjectionException When the field cannot be read
+	 */
+	private FieldAccessor(Field field) throws DependencyInjectionException {
+		this.field = field;
+
+		Field accessibleField;
+		try {
+			accessibleField = field.getDeclaringClass().getDeclaredField(field.getName());
+			accessibleField.setAccessible(true);
+		}
+		catch (NoSuchFieldException | SecurityException se) {
+			throw new DependencyInjectionException("Unable to make the field [" + field.getName() + "] of the class ["
+				+ field.getDeclaringClass().getSimpleName() + "] accessible.", se);
+		}
+
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+		// The static fields ignore the object given to the handles
+		boolean staticField = Modifier.isStatic(field.getModifiers());
+
+		try {
+			MethodHandle fieldGetter = lookup.unreflectGetter(accessibleField);
+			if (staticField) {
+				fieldGetter = MethodHandles.dropArguments(fieldGetter, 0, Object.class);
+			}
+			getter = fieldGetter.asType(GETTER_TYPE);
+		}
+		catch (IllegalAccessException iae) {
+			throw new DependencyInjectionException("Unable to read the field [" + field.getName() + "] of the class ["
+				+ field.getDeclaringClass().getSimpleName() + "].", iae);
+		}
+
+		// The static final fields are constants, depending on the JVM the lookup does not refuse
+		// to write them once the access checks are suppressed
+		MethodHandle fieldSetter = null;
+		if (!staticField || !Modifier.isFinal(field.getModifiers())) {
+			try {
+				fieldSetter = lookup.unreflectSetter(accessibleField);
+				if (staticField) {
+					fieldSetter = MethodHandles.dropArguments(fieldSetter, 0, Object.class);
+				}
+				fieldSetter = fieldSetter.asType(SETTER_TYPE);
+			}
+			catch (IllegalAccessException iae) {
+				fieldSetter = null;
+			}
+		}
+		setter = fieldSetter;
+	}
+
+	/**
+	 * Retrieve the accessor of a field. The accessor is created the first time the field is requested.
+	 *
+	 * @param field The field to access
+	 * @return The accessor
+	 * @throws DependencyInjectionException When the field cannot be read
+	 */
+	static FieldAccessor forField(Field field) throws DependencyInjectionException {
+		FieldAccessor accessor = ACCESSORS.get(field);
+
+		if (accessor == null) {
+			FieldAccessor newAccessor = new FieldAccessor(field);
+			accessor = ACCESSORS.putIfAbsent(field, newAccessor);
+			if (accessor == null) {
+				accessor = newAccessor;
+			}
+		}
+
+		return accessor;
+	}
+
+	/**
+	 * @return The field accessed
+	 */
+	Field getField() {
+		return field;
+	}
+
+	/**
+	 * Retrieve the value of the field on the holder
+	 *
+	 * @param holder The object where the field is
+	 * @return The value of the field from the holder
+	 * @throws DependencyInjectionException When it is not possible to get the value of the field from the holder,
+	 * the runtime exceptions and the errors are thrown unchanged
+	 */
+	Object get(Object holder) throws DependencyInjectionException {
+		try {
+			return (Object) getter.invokeExact(holder);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new DependencyInjectionException(
+				"Unable to get the value on field [" + field.getName() + "] of the object [" + holder.getClass().getSimpleName() + "].", t);
+		}
+	}
+
+	/**
+	 * Check if the field is null on the holder
+	 *
+	 * @param holder The holder where the field is
+	 * @return True if the field has no value (null value), false otherwise
+	 * @throws DependencyInjectionException When it is not possible to retrieve the state of the field
+	 */
+	boolean isNull(Object holder) throws DependencyInjectionException {
+		return get(holder) == null;
+	}
+
+	/**
+	 * Set the value of the field on the holder
+	 *
+	 * @param holder The object where the field is
+	 * @param value The value to set to the field on the object
+	 * @throws DependencyInjectionException Any checked error during the injection, the runtime exceptions
+	 * (a value of the wrong type by example) and the errors are thrown unchanged
+	 */
+	void set(Object holder, Object value) throws DependencyInjectionException {
+		if (setter == null) {
+			throw new DependencyInjectionException("Unable to set the value [" + value + "] on field ["
+				+ field.getName() + "] of the object [" + holder.getClass().getSimpleName() + "]. The field cannot be written.");
+		}
+
+		try {
+			setter.invokeExact(holder, value);
+		}
+		catch (RuntimeException | Error e) {
+			throw e;
+		}
+		catch (Throwable t) {
+			throw new DependencyInjectionException("Unable to set the value [" + value + "] on field ["
+				+ field.getName() + "] of the object [" + holder.getClass().getSimpleName() + "].", t);
+		}
+	}
+}
@@ -0,0 +1,264 @@
+package io.probedock.junitee.dependency;
+
+import io.probedock.junitee.annotations.InjectDataGenerator;
+import io.probedock.junitee.annotations.UseMock;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
+import javax.ejb.EJB;
+import javax.persistence.PersistenceContext;
+
+/**
+ * An injection plan keeps the result of the analysis of a class for the injections. The fields
+ * to inject and the @PostConstruct methods are collected across the class hierarchy only once
+ * per class and then reused for every object of that class.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+final class InjectionPlan {
+	/**
+	 * The plans already built for the classes
+	 */
+	private static final ConcurrentMap<Class<?>, InjectionPlan> PLANS = new ConcurrentHashMap<>();
+
+	/**
+	 * The kind of injection to do for a field
+	 */
+	enum Kind {
+		/**
+		 * The field only registers mocks (@UseMock without @EJB)
+		 */
+		MOCK,
+
+		/**
+		 * The field is annotated with @EJB
+		 */
+		EJB,
+
+		/**
+		 * The field is annotated with @InjectDataGenerator
+		 */
+		DATA_GENERATOR,
+
+		/**
+		 * The field is annotated with @PersistenceContext
+		 */
+		PERSISTENCE_CONTEXT
+	}
+
+	/**
+	 * The fields to inject ordered from the top of the class hierarchy to the class itself
+	 */
+	private final List<InjectionPoint> injectionPoints;
+
+	/**
+	 * The @PostConstruct methods ordered from the class itself to the top of the class hierarchy
+	 */
+	private final List<Method> postConstructMethods;
+
+	/**
+	 * Constructor
+	 *
+	 * @param cl The class to analyze
+	 * @throws DependencyInjectionException When a field to inject cannot be accessed
+	 */
+	private InjectionPlan(Class<?> cl) throws DependencyInjectionException {
+		List<InjectionPoint> points = new ArrayList<>();
+		collectInjectionPoints(cl, points);
+		injectionPoints = Collections.unmodifiableList(points);
+
+		List<Method> methods = new ArrayList<>();
+		collectPostConstructMethods(cl, methods);
+		postConstructMethods = Collections.unmodifiableList(methods);
+	}
+
+	/**
+	 * Retrieve the injection plan of a class. The plan is built the first time
+	 * the class is requested.
+	 *
+	 * @param cl The class for which the plan is required
+	 * @return The injection plan
+	 * @throws DependencyInjectionException When a field to inject cannot be accessed
+	 */
+	static InjectionPlan forClass(Class<?> cl) throws DependencyInjectionException {
+		InjectionPlan plan = PLANS.get(cl);
+
+		if (plan == null) {
+			InjectionPlan newPlan = new InjectionPlan(cl);
+			plan = PLANS.putIfAbsent(cl, newPlan);
+			if (plan == null) {
+				plan = newPlan;
+			}
+		}
+
+		return plan;
+	}
+
+	/**
+	 * @return The fields to inject
+	 */
+	List<InjectionPoint> getInjectionPoints() {
+		return injectionPoints;
+	}
+
+	/**
+	 * Invoke the @PostConstruct methods on an object of the class of the plan
+	 *
+	 * @param obj The object on which the methods are invoked
+	 * @throws DependencyInjectionException Any error due to the invocation of the post construct methods
+	 */
+	void invokePostConstruct(Object obj) throws DependencyInjectionException {
+		for (Method m : postConstructMethods) {
+			try {
+				m.invoke(obj);
+			}
+			catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+				throw new DependencyInjectionException("Unable to call the method " + m.getName() + " on object of class " +
+					m.getDeclaringClass().getCanonicalName() + ". @PostConstruct methods must be empty args methods.");
+			}
+		}
+	}
+
+	/**
+	 * Collect the fields to inject. The super classes are analyzed first to keep
+	 * the injection order from the top of the hierarchy to the bottom.
+	 *
+	 * @param cl The class to analyze
+	 * @param points The fields collected
+	 * @throws DependencyInjectionException When a field to inject cannot be accessed
+	 */
+	private static void collectInjectionPoints(Class<?> cl, List<InjectionPoint> points) throws DependencyInjectionException {
+		if (cl.getSuperclass() != null && cl.getSuperclass() != Object.class) {
+			collectInjectionPoints(cl.getSuperclass(), points);
+		}
+
+		for (Field declaredField : cl.getDeclaredFields()) {
+			UseMock useMock = declaredField.getAnnotation(UseMock.class);
+
+			Kind kind = null;
+			if (declaredField.isAnnotationPresent(EJB.class)) {
+				kind = Kind.EJB;
+			}
+			else if (declaredField.isAnnotationPresent(InjectDataGenerator.class)) {
+				kind = Kind.DATA_GENERATOR;
+			}
+			else if (declaredField.isAnnotationPresent(PersistenceContext.class)) {
+				kind = Kind.PERSISTENCE_CONTEXT;
+			}
+			else if (useMock != null) {
+				kind = Kind.MOCK;
+			}
+
+			if (kind != null) {
+				points.add(new InjectionPoint(FieldAccessor.forField(declaredField), kind, useMock != null ? useMock.value() : new Class<?>[0]));
+			}
+		}
+	}
+
+	/**
+	 * Collect the @PostConstruct methods across the class hierarchy
+	 *
+	 * @param cl The class to analyze
+	 * @param methods The methods collected
+	 */
+	private static void collectPostConstructMethods(Class<?> cl, List<Method> methods) {
+		Class<?> current = cl;
+
+		while (current != null && current != Object.class) {
+			for (Method m : current.getDeclaredMethods()) {
+				if (m.isAnnotationPresent(PostConstruct.class)) {
+					m.setAccessible(true);
+					methods.add(m);
+				}
+			}
+
+			current = current.getSuperclass();
+		}
+	}
+
+	/**
+	 * Keep the analysis of a field to inject
+	 */
+	static final class InjectionPoint {
+		/**
+		 * The accessor of the field to inject
+		 */
+		private final FieldAccessor accessor;
+
+		/**
+		 * The kind of injection
+		 */
+		private final Kind kind;
+
+		/**
+		 * The mock classes to register before the injection
+		 */
+		private final Class<?>[] mockClasses;
+
+		/**
+		 * The implementation class resolved from the field type
+		 */
+		private volatile Class<?> implementationClass;
+
+		/**
+		 * Constructor
+		 *
+		 * @param accessor The accessor of the field to inject
+		 * @param kind The kind of injection
+		 * @param mockClasses The mock classes to register
+		 */
+		private InjectionPoint(FieldAccessor accessor, Kind kind, Class<?>[] mockClasses) {
+			this.accessor = accessor;
+			this.kind = kind;
+			this.mockClasses = mockClasses;
+		}
+
+		/**
+		 * @return The field to inject
+		 */
+		Field getField() {
+			return accessor.getField();
+		}
+
+		/**
+		 * @return The accessor of the field to inject
+		 */
+		FieldAccessor getAccessor() {
+			return accessor;
+		}
+
+		/**
+		 * @return The kind of injection
+		 */
+		Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * @return The mock classes to register
+		 */
+		Class<?>[] getMockClasses() {
+			return mockClasses;
+		}
+
+		/**
+		 * Retrieve the implementation class of the field type. The resolution is done only
+		 * once when it succeeds, a failure is reported each time the implementation is requested.
+		 *
+		 * @return The implementation class
+		 * @throws DependencyInjectionException Unable to find a valid class that can be instantiated
+		 */
+		Class<?> getImplementationClass() throws DependencyInjectionException {
+			if (implementationClass == null) {
+				implementationClass = DependencyInjectorHelper.findImplementationClass(accessor.getField().getType());
+			}
+			return implementationClass;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package io.probedock.junitee.finder;
+
+/**
+ * Define how the finders are isolated from the persistence context of the data generators
+ * to read the data from the database.
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public enum FinderIsolation {
+	/**
+	 * The whole persistence context of the entity manager shared with the data generators is
+	 * cleared before each find method. This is the default behavior.
+	 */
+	CLEAR,
+
+	/**
+	 * The finders use their own entity manager per persistence unit. Only that entity manager
+	 * is cleared before each find method, the entities of the data generators stay managed.
+	 * The entity manager is created for each test and closed after it.
+	 */
+	DEDICATED_ENTITY_MANAGER,
+
+	/**
+	 * The finders use the entity manager shared with the data generators without clearing it.
+	 * The managed entities returned by a find method (directly or in a collection) are refreshed
+	 * from the database.
+	 */
+	REFRESH
+}
@@ -3,12 +3,21 @@ package io.probedock.junitee.finder;
 import io.probedock.junitee.annotations.Finder;
 import io.probedock.junitee.generator.DataGeneratorManager;
 import io.probedock.junitee.dependency.DependencyInjector;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 import io.probedock.junitee.utils.EntityManagerHolder;
 import net.sf.cglib.proxy.Enhancer;
@@ -24,6 +33,16 @@ import org.junit.runners.model.Statement;
  * 
  * This finder manager should be used associated with a JUnit Rule mechanism.
  * 
+ * The finders are stateless query objects. The finder proxies are kept in a pool for the whole JVM per
+ * finder class and entity manager factory to reuse them across the tests and the finder managers. Each
+ * proxy is injected only once with an entity manager that delegates to the entity manager of the test
+ * run by the current thread. The proxies only keep a weak reference to the entity managers of the tests
+ * and the pool only keeps a weak reference to the factories, the pool never prevents an entity manager
+ * or a factory from being garbage collected.
+ * 
+ * By default, the persistence context is cleared before each find method. As the entity manager is shared
+ * with the data generators, the isolation of the finders can be changed with {@link #useIsolation(FinderIsolation)}.
+ * 
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
 public class FinderManager implements TestRule {
@@ -35,10 +54,36 @@ public class FinderManager implements TestRule {
 	private EntityManagerHolder entityManagerHolder;
 
 	/**
-	 * Keep track of the finders
+	 * The callbacks of the finder proxies already created per entity manager factory, then per finder class and
+	 * isolation. The factories are weakly referenced, the finders of a discarded factory are released with it.
+	 */
+	private static final Map<EntityManagerFactory, Map<List<Object>, FinderCallback>> FINDER_POOL = new WeakHashMap<>();
+
+	/**
+	 * Keep track of the finders of the test executed by the current thread
 	 */
-	private Map<Class, IFinder> finders = new HashMap<>();
+	private final ThreadLocal<Map<Class, IFinder>> finders = new ThreadLocal<Map<Class, IFinder>>() {
+		@Override
+		protected Map<Class, IFinder> initialValue() {
+			return new HashMap<>();
+		}
+	};
 	
+	/**
+	 * The isolation of the finders from the persistence context of the data generators
+	 */
+	private FinderIsolation isolation = FinderIsolation.CLEAR;
+
+	/**
+	 * The entity managers dedicated to the finders per factory name for the test of the current thread, closed after the test
+	 */
+	private final ThreadLocal<Map<String, EntityManager>> dedicatedEntityManagers = new ThreadLocal<Map<String, EntityManager>>() {
+		@Override
+		protected Map<String, EntityManager> initialValue() {
+			return new HashMap<>();
+		}
+	};
+
 	/**
 	 * Force the construction of the data generator with an one or more entity manager factory
 	 * 
@@ -51,6 +96,21 @@ public class FinderManager implements TestRule {
 		this.entityManagerHolder = entityManagerHolder;
 	}
 
+	/**
+	 * Define how the finders are isolated from the persistence context of the data generators
+	 * 
+	 * @param isolation The isolation of the finders
+	 * @return This
+	 */
+	public FinderManager useIsolation(FinderIsolation isolation) {
+		if (isolation == null) {
+			throw new IllegalArgumentException("The finder isolation cannot be null.");
+		}
+
+		this.isolation = isolation;
+		return this;
+	}
+
 	@Override
 	public Statement apply(Statement base, Description description) {
 		return internalApply(base, description);
@@ -64,8 +124,13 @@ public class FinderManager implements TestRule {
 		return new Statement() {
 			@Override
 			public void evaluate() throws Throwable {
-				manageFinders(description);
-				base.evaluate();
+				try {
+					manageFinders(description);
+					base.evaluate();
+				}
+				finally {
+					closeDedicatedEntityManagers();
+				}
 			}
 		};
 	}	
@@ -79,7 +144,7 @@ public class FinderManager implements TestRule {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends IFinder> T getFinder(Class<T> finderClass) {
-		return (T) finders.get(finderClass);
+		return (T) finders.get().get(finderClass);
 	}
 	
 	/**
@@ -91,6 +156,7 @@ public class FinderManager implements TestRule {
 	private void manageFinders(Description description) throws FinderException {
 		// Clear the finders used in a previous test. Clear must be there because 
 		// there is no warranty to reach the after if a test fails.
+		Map<Class, IFinder> finders = this.finders.get();
 		finders.clear();
 
 		Finder finderAnnotation = description.getAnnotation(Finder.class);
@@ -102,12 +168,17 @@ public class FinderManager implements TestRule {
 		// Retrieve all the data generators defined for the test method.
 		for (Class<? extends IFinder> finderClass : finderAnnotation.value()) {
 			// Retrieve the entity manager corresponding to the finder
-			EntityManager entityManager = entityManagerHolder.retrieveEntityManagerFromFinder(finderClass);
+			EntityManager entityManager = retrieveEntityManager(finderClass);
 
 			// Check if the data generator is already instantiated.
 			if (!finders.containsKey(finderClass)) {
-				// Instantiate a new data generator, inject the DAO and keep track of it.
-				finders.put(finderClass, (IFinder) Enhancer.create(finderClass, new Class[] {IFinder.class}, new FinderCallback(entityManager)));
+				// Retrieve the finder from the pool or instantiate a new one, the DAO are injected on first use.
+				FinderCallback callback = retrieveFinder(finderClass, entityManagerHolder.retrieveFactoryFromFinder(finderClass));
+
+				// Point the finder to the entity manager of the test for the current thread
+				callback.bind(entityManager);
+
+				finders.put(finderClass, callback.getFinder());
 			}
 			else {
 				LOG.log(Level.SEVERE, "The finder [" + finderClass.getCanonicalName() + "] is already instantiated. One instance of each finder is allowed.");
@@ -117,6 +188,82 @@ public class FinderManager implements TestRule {
 		}
 	}
 	
+	/**
+	 * Retrieve the entity manager of a finder. The dedicated entity managers are created the first
+	 * time they are requested by the current thread.
+	 *
+	 * @param finderClass The finder class
+	 * @return The entity manager
+	 */
+	private EntityManager retrieveEntityManager(Class<? extends IFinder> finderClass) {
+		if (isolation != FinderIsolation.DEDICATED_ENTITY_MANAGER) {
+			return entityManagerHolder.retrieveEntityManagerFromFinder(finderClass);
+		}
+
+		Map<String, EntityManager> entityManagers = dedicatedEntityManagers.get();
+		String factoryName = entityManagerHolder.retrieveFactoryName(finderClass);
+
+		EntityManager entityManager = entityManagers.get(factoryName);
+
+		if (entityManager == null) {
+			entityManager = entityManagerHolder.createEntityManagerFromFinder(finderClass);
+			entityManagers.put(factoryName, entityManager);
+		}
+
+		return entityManager;
+	}
+
+	/**
+	 * Close the entity managers dedicated to the finders by the test of the current thread
+	 */
+	private void closeDedicatedEntityManagers() {
+		Map<String, EntityManager> entityManagers = dedicatedEntityManagers.get();
+
+		for (EntityManager entityManager : entityManagers.values()) {
+			try {
+				if (entityManager.isOpen()) {
+					entityManager.close();
+				}
+			}
+			catch (RuntimeException re) {
+				LOG.log(Level.WARNING, "Unable to close the entity manager dedicated to the finders", re);
+			}
+		}
+
+		entityManagers.clear();
+	}
+
+	/**
+	 * Retrieve a finder from the pool. The finder is created the first time it is requested
+	 * for the entity manager factory.
+	 *
+	 * @param finderClass The finder class
+	 * @param factory The entity manager factory of the finder
+	 * @return The callback of the finder
+	 */
+	private FinderCallback retrieveFinder(Class<? extends IFinder> finderClass, EntityManagerFactory factory) {
+		List<Object> key = Arrays.<Object>asList(finderClass, isolation);
+
+		synchronized (FINDER_POOL) {
+			Map<List<Object>, FinderCallback> callbacks = FINDER_POOL.get(factory);
+
+			if (callbacks == null) {
+				callbacks = new HashMap<>();
+				FINDER_POOL.put(factory, callbacks);
+			}
+
+			FinderCallback callback = callbacks.get(key);
+
+			if (callback == null) {
+				callback = new FinderCallback(finderClass, isolation);
+				callback.finder = (IFinder) Enhancer.create(finderClass, new Class[] {IFinder.class}, callback);
+				callbacks.put(key, callback);
+			}
+
+			return callback;
+		}
+	}
+
 	/**
 	 * Callback class to allow lazy instantiation of annotated fields
 	 */
@@ -124,36 +271,175 @@ public class FinderManager implements TestRule {
 		/**
 		 * Cache the fact that a the real implementation is injected or not
 		 */
-		private boolean injected = false;
+		private volatile boolean injected = false;
 		
 		/**
-		 * Keep track of the entity manager to allow the management of the cache
+		 * The entity manager of the test run by the current thread, weakly referenced as the callback is kept in the pool
+		 */
+		private final ThreadLocal<WeakReference<EntityManager>> boundEntityManager = new ThreadLocal<>();
+
+		/**
+		 * The entity manager injected into the finder, it delegates to the entity manager of the current test
 		 */
 		private EntityManager em;
 
+		/**
+		 * The isolation of the finder
+		 */
+		private FinderIsolation isolation;
+
+		/**
+		 * The finder class
+		 */
+		private Class<? extends IFinder> finderClass;
+
+		/**
+		 * The finder proxy
+		 */
+		private IFinder finder;
+
+		/**
+		 * Apply the read only hints to the queries of the read only methods, null if the finder has no read only method
+		 */
+		private ReadOnlyQueries readOnlyQueries;
+
 		/**
 		 * Constructor
 		 * 
-		 * @param em The entity manager
+		 * @param finderClass The finder class
+		 * @param isolation The isolation of the finder
+		 */
+		public FinderCallback(Class<? extends IFinder> finderClass, FinderIsolation isolation) {
+			this.finderClass = finderClass;
+			this.isolation = isolation;
+
+			em = (EntityManager) Proxy.newProxyInstance(FinderManager.class.getClassLoader(), new Class[] {EntityManager.class}, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					try {
+						return method.invoke(currentEntityManager(), args);
+					}
+					catch (InvocationTargetException ite) {
+						throw ite.getCause();
+					}
+				}
+			});
+
+			if (ReadOnlyQueries.hasReadOnlyMethods(finderClass)) {
+				readOnlyQueries = new ReadOnlyQueries(finderClass, em);
+			}
+		}
+
+		/**
+		 * Bind the entity manager of the test run by the current thread
+		 * 
+		 * @param entityManager The entity manager
+		 */
+		private void bind(EntityManager entityManager) {
+			boundEntityManager.set(new WeakReference<>(entityManager));
+		}
+
+		/**
+		 * @return The entity manager of the test run by the current thread
+		 * @throws IllegalStateException When no entity manager is bound to the current thread
+		 */
+		private EntityManager currentEntityManager() {
+			WeakReference<EntityManager> reference = boundEntityManager.get();
+			EntityManager entityManager = reference != null ? reference.get() : null;
+
+			if (entityManager == null) {
+				throw new IllegalStateException("No entity manager is bound to the finder " + finderClass.getCanonicalName() + " in the thread "
+					+ Thread.currentThread().getName() + ". The finders can only be used by the thread running the test.");
+			}
+
+			return entityManager;
+		}
+
+		/**
+		 * @return The finder proxy
 		 */
-		public FinderCallback(EntityManager em) {
-			this.em = em;
+		private IFinder getFinder() {
+			return finder;
 		}
 		
 		@Override
 		public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
 			// Lazy injection
 			if (!injected) {
-				DependencyInjector.inject(obj, em, false);
+				synchronized (this) {
+					if (!injected) {
+						DependencyInjector.inject(obj, readOnlyQueries != null ? readOnlyQueries.getReadOnlyEntityManager() : em, false);
+						injected = true;
+					}
+				}
 			}
 			
+			if (readOnlyQueries != null && readOnlyQueries.isReadOnly(method)) {
+				boolean previous = readOnlyQueries.enter();
+				try {
+					return invoke(obj, method, args, proxy);
+				}
+				finally {
+					readOnlyQueries.exit(previous);
+				}
+			}
+
+			return invoke(obj, method, args, proxy);
+		}
+
+		/**
+		 * Invoke a finder method and manage the persistence context
+		 * 
+		 * @param obj The finder
+		 * @param method The method
+		 * @param args The arguments
+		 * @param proxy The method proxy
+		 * @return The result of the method
+		 * @throws Throwable Any error
+		 */
+		private Object invoke(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			if (!method.getName().startsWith("find")) {
+				return proxy.invokeSuper(obj, args);
+			}
+
+			EntityManager entityManager = currentEntityManager();
+
 			// Clear the entity manager cache if a find method is called
-			if (method.getName().startsWith("find")) {
-				em.clear();
+			if (isolation != FinderIsolation.REFRESH) {
+				entityManager.clear();
+				return proxy.invokeSuper(obj, args);
+			}
+
+			// Refresh the managed entities returned in place of clearing the whole cache
+			Object result = proxy.invokeSuper(obj, args);
+
+			if (result instanceof Collection) {
+				for (Object entity : (Collection<?>) result) {
+					refresh(entityManager, entity);
+				}
+			}
+			else {
+				refresh(entityManager, result);
+			}
+
+			return result;
+		}
+
+		/**
+		 * Refresh an entity when it is managed by the entity manager
+		 * 
+		 * @param entityManager The entity manager of the current test
+		 * @param entity The entity, the objects that are not entities are ignored
+		 */
+		private void refresh(EntityManager entityManager, Object entity) {
+			try {
+				if (entity != null && entityManager.contains(entity)) {
+					entityManager.refresh(entity);
+				}
+			}
+			catch (IllegalArgumentException iae) {
+				// The object is not an entity
 			}
-			
-			// Invoke the method
-			return proxy.invokeSuper(obj, args);
 		}
 	}
 }
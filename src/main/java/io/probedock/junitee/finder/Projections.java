@@ -0,0 +1,51 @@
+package io.probedock.junitee.finder;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+/**
+ * Helper to build DTO projection queries for the finders. The query uses a JPQL constructor
+ * expression, so the results are plain objects which are neither managed nor tracked by the
+ * persistence context. This is useful for the assertion queries that only need few fields.
+ *
+ * <pre>
+ * public List&lt;UserName&gt; findUserNames() {
+ *   return Projections.select(em, UserName.class, "u.firstname, u.lastname", "FROM User u ORDER BY u.id").getResultList();
+ * }
+ * </pre>
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public final class Projections {
+	private Projections() {}
+
+	/**
+	 * Create a DTO projection query
+	 *
+	 * @param <D> The type of DTO
+	 * @param entityManager The entity manager to create the query
+	 * @param dtoClass The DTO class with a public constructor matching the selection, it must be a top level class
+	 * @param selection The expressions given to the constructor (u.id, u.lastname by example)
+	 * @param fromClause The rest of the query starting by the FROM clause
+	 * @return The query
+	 */
+	public static <D> TypedQuery<D> select(EntityManager entityManager, Class<D> dtoClass, String selection, String fromClause) {
+		return entityManager.createQuery(jpql(dtoClass, selection, fromClause), dtoClass);
+	}
+
+	/**
+	 * Build the JPQL of a DTO projection query
+	 *
+	 * @param dtoClass The DTO class
+	 * @param selection The expressions given to the constructor
+	 * @param fromClause The rest of the query starting by the FROM clause
+	 * @return The JPQL query
+	 */
+	static String jpql(Class<?> dtoClass, String selection, String fromClause) {
+		if (dtoClass == null || selection == null || fromClause == null) {
+			throw new IllegalArgumentException("The DTO class, the selection and the from clause cannot be null.");
+		}
+
+		return "SELECT NEW " + dtoClass.getName() + "(" + selection + ") " + fromClause;
+	}
+}
@@ -0,0 +1,181 @@
+package io.probedock.junitee.finder;
+
+import io.probedock.junitee.annotations.ReadOnly;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+/**
+ * The read only queries wrap the entity manager of a finder to apply the read only hints to the
+ * queries created during the calls of the read only methods. The hints unknown by the JPA provider
+ * are ignored by it.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+class ReadOnlyQueries implements InvocationHandler {
+	/**
+	 * The read only hints of the JPA providers
+	 */
+	static final Map<String, Object> HINTS = new LinkedHashMap<>();
+
+	static {
+		HINTS.put("eclipselink.read-only", "true");
+		HINTS.put("eclipselink.maintain-cache", "false");
+		HINTS.put("org.hibernate.readOnly", true);
+	}
+
+	/**
+	 * The finder class
+	 */
+	private final Class<?> finderClass;
+
+	/**
+	 * The read only flag of the finder methods already called
+	 */
+	private final Map<Method, Boolean> readOnlyMethods = new ConcurrentHashMap<>();
+
+	/**
+	 * The real entity manager
+	 */
+	private final EntityManager entityManager;
+
+	/**
+	 * The entity manager to inject into the finder
+	 */
+	private final EntityManager readOnlyEntityManager;
+
+	/**
+	 * Define if a read only call is running in the current thread
+	 */
+	private final ThreadLocal<Boolean> readOnly = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return false;
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param finderClass The finder class
+	 * @param entityManager The entity manager to wrap
+	 */
+	ReadOnlyQueries(Class<?> finderClass, EntityManager entityManager) {
+		this.finderClass = finderClass;
+		this.entityManager = entityManager;
+		this.readOnlyEntityManager = (EntityManager) Proxy.newProxyInstance(
+			ReadOnlyQueries.class.getClassLoader(), new Class[] {EntityManager.class}, this);
+	}
+
+	/**
+	 * Check if a finder class has read only methods
+	 *
+	 * @param finderClass The finder class
+	 * @return True if the class or one of its methods is annotated with {@link ReadOnly}
+	 */
+	static boolean hasReadOnlyMethods(Class<?> finderClass) {
+		for (Class<?> current = finderClass; current != null && current != Object.class; current = current.getSuperclass()) {
+			if (current.isAnnotationPresent(ReadOnly.class)) {
+				return true;
+			}
+
+			for (Method method : current.getDeclaredMethods()) {
+				if (method.isAnnotationPresent(ReadOnly.class)) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Check if a finder method is read only. The annotations are only resolved on the first call of the method.
+	 *
+	 * @param method The finder method
+	 * @return True if the method or the finder class hierarchy is annotated with {@link ReadOnly}
+	 */
+	boolean isReadOnly(Method method) {
+		Boolean methodReadOnly = readOnlyMethods.get(method);
+
+		if (methodReadOnly == null) {
+			methodReadOnly = isReadOnly(finderClass, method);
+			readOnlyMethods.put(method, methodReadOnly);
+		}
+
+		return methodReadOnly;
+	}
+
+	/**
+	 * Check if a finder method is read only
+	 *
+	 * @param finderClass The finder class
+	 * @param method The finder method
+	 * @return True if the method or the finder class hierarchy is annotated with {@link ReadOnly}
+	 */
+	private static boolean isReadOnly(Class<?> finderClass, Method method) {
+		if (method.isAnnotationPresent(ReadOnly.class)) {
+			return true;
+		}
+
+		for (Class<?> current = finderClass; current != null && current != Object.class; current = current.getSuperclass()) {
+			if (current.isAnnotationPresent(ReadOnly.class)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return The entity manager that applies the read only hints during the read only calls
+	 */
+	EntityManager getReadOnlyEntityManager() {
+		return readOnlyEntityManager;
+	}
+
+	/**
+	 * Mark the start of a read only call in the current thread
+	 *
+	 * @return The previous state to restore at the end of the call
+	 */
+	boolean enter() {
+		boolean previous = readOnly.get();
+		readOnly.set(true);
+		return previous;
+	}
+
+	/**
+	 * Mark the end of a read only call in the current thread
+	 *
+	 * @param previous The state returned by {@link #enter()}
+	 */
+	void exit(boolean previous) {
+		readOnly.set(previous);
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object result;
+		try {
+			result = method.invoke(entityManager, args);
+		}
+		catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+
+		if (result instanceof Query && method.getName().startsWith("create") && readOnly.get()) {
+			for (Map.Entry<String, Object> hint : HINTS.entrySet()) {
+				((Query) result).setHint(hint.getKey(), hint.getValue());
+			}
+		}
+
+		return result;
+	}
+}
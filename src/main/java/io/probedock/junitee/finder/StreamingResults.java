@@ -0,0 +1,255 @@
+package io.probedock.junitee.finder;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+
+/**
+ * The streaming results let a finder iterate over the results of a query with a bounded memory
+ * footprint. The results are loaded lazily by chunks during the iteration. The persistence context
+ * is cleared before loading the next chunk, so the entities of the previous chunks are detached.
+ *
+ * By default, the chunks are loaded with the first result and max results of the query (offset paging).
+ * The query must define a stable order (ORDER BY the identifier by example) to not skip or repeat results.
+ * Take care that the database reads and skips all the rows before the offset for each chunk, so streaming
+ * N results costs O(N&sup2; / chunk size) row reads. For large tables, use the keyset paging: the query
+ * filters the identifiers greater than a parameter and is ordered by identifier, the parameter receives the
+ * identifier of the last result of the previous chunk.
+ *
+ * The first result and max results defined on the query when the streaming results are created are taken
+ * into account and restored after each chunk. Each iterator keeps its own paging state, but the iterators
+ * share the persistence context which is cleared between the chunks.
+ *
+ * <pre>
+ * public Iterable&lt;User&gt; findAllUsers() {
+ *   return StreamingResults.of(em, em.createQuery("SELECT u FROM User u WHERE u.id &gt; :lastId ORDER BY u.id", User.class))
+ *     .keyset("lastId", 0L).chunkSize(500);
+ * }
+ * </pre>
+ *
+ * @param <T> The type of results
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public final class StreamingResults<T> implements Iterable<T> {
+	/**
+	 * Default number of results loaded by chunk
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/**
+	 * The vendor hints of the JDBC fetch size, the hints unknown by the provider are ignored
+	 */
+	static final String[] FETCH_SIZE_HINTS = new String[] { "org.hibernate.fetchSize", "eclipselink.jdbc.fetch-size" };
+
+	/**
+	 * The entity manager to clear between the chunks
+	 */
+	private final EntityManager entityManager;
+
+	/**
+	 * The query to run by chunks
+	 */
+	private final TypedQuery<T> query;
+
+	/**
+	 * The first result defined on the query
+	 */
+	private final int firstResult;
+
+	/**
+	 * The max results defined on the query
+	 */
+	private final int maxResults;
+
+	/**
+	 * Number of results loaded by chunk
+	 */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * The parameter receiving the identifier of the last result of the previous chunk, null for the offset paging
+	 */
+	private String keyParameter;
+
+	/**
+	 * The value of the key parameter for the first chunk
+	 */
+	private Object initialKey;
+
+	/**
+	 * Constructor
+	 *
+	 * @param entityManager The entity manager of the query
+	 * @param query The query
+	 */
+	private StreamingResults(EntityManager entityManager, TypedQuery<T> query) {
+		this.entityManager = entityManager;
+		this.query = query;
+		this.firstResult = query.getFirstResult();
+		this.maxResults = query.getMaxResults();
+	}
+
+	/**
+	 * Stream the results of a query
+	 *
+	 * @param <T> The type of results
+	 * @param entityManager The entity manager of the query
+	 * @param query The query to stream
+	 * @return The streaming results
+	 */
+	public static <T> StreamingResults<T> of(EntityManager entityManager, TypedQuery<T> query) {
+		if (entityManager == null || query == null) {
+			throw new IllegalArgumentException("The entity manager and the query cannot be null.");
+		}
+
+		return new StreamingResults<>(entityManager, query);
+	}
+
+	/**
+	 * Configure the number of results loaded by chunk. It is also used as the JDBC fetch size.
+	 *
+	 * @param chunkSize The number of results by chunk
+	 * @return This
+	 */
+	public StreamingResults<T> chunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("The chunk size must be greater than zero.");
+		}
+
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Page on the identifiers of the results in place of the first result (keyset paging). The query
+	 * must return entities, filter the identifiers greater than the parameter and be ordered by identifier.
+	 * The cost of each chunk does not depend on its position.
+	 *
+	 * @param parameterName The name of the query parameter receiving the identifier of the last result of the previous chunk
+	 * @param initialKey The value of the parameter for the first chunk, lower than all the identifiers
+	 * @return This
+	 */
+	public StreamingResults<T> keyset(String parameterName, Object initialKey) {
+		if (parameterName == null || initialKey == null) {
+			throw new IllegalArgumentException("The parameter name and the initial key cannot be null.");
+		}
+
+		this.keyParameter = parameterName;
+		this.initialKey = initialKey;
+		return this;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return new ChunkIterator();
+	}
+
+	/**
+	 * Iterator loading the results chunk by chunk. The paging state is kept by the iterator and
+	 * the paging of the query is restored after each chunk.
+	 */
+	private class ChunkIterator implements Iterator<T> {
+		private List<T> chunk = Collections.emptyList();
+		private int index = 0;
+		private int loaded = 0;
+		private boolean exhausted = false;
+		private Object lastKey = initialKey;
+
+		@Override
+		public boolean hasNext() {
+			if (index < chunk.size()) {
+				return true;
+			}
+
+			if (!exhausted) {
+				loadNextChunk();
+			}
+
+			return index < chunk.size();
+		}
+
+		@Override
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+
+			return chunk.get(index++);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Load the next chunk of results
+		 */
+		private void loadNextChunk() {
+			int size = Math.min(chunkSize, maxResults - loaded);
+
+			// Detach the results of the previous chunk
+			if (loaded > 0) {
+				entityManager.clear();
+			}
+
+			if (size > 0) {
+				if (keyParameter == null) {
+					query.setFirstResult(firstResult + loaded);
+				}
+				else {
+					// The offset of the query only applies to the first chunk
+					query.setParameter(keyParameter, lastKey).setFirstResult(loaded == 0 ? firstResult : 0);
+				}
+
+				query.setMaxResults(size);
+				for (String hint : FETCH_SIZE_HINTS) {
+					query.setHint(hint, size);
+				}
+
+				try {
+					chunk = query.getResultList();
+				}
+				finally {
+					query.setFirstResult(firstResult).setMaxResults(maxResults);
+				}
+
+				if (keyParameter != null && !chunk.isEmpty()) {
+					lastKey = identifierOf(chunk.get(chunk.size() - 1));
+				}
+			}
+			else {
+				chunk = Collections.emptyList();
+			}
+
+			index = 0;
+			loaded += chunk.size();
+
+			if (chunk.size() < size || size == 0) {
+				exhausted = true;
+			}
+		}
+
+		/**
+		 * Retrieve the identifier of a result for the keyset paging
+		 *
+		 * @param result The result, it must be an entity
+		 * @return The identifier
+		 */
+		private Object identifierOf(T result) {
+			PersistenceUnitUtil persistenceUnitUtil = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+			Object identifier = persistenceUnitUtil.getIdentifier(result);
+
+			if (identifier == null) {
+				throw new IllegalStateException("The keyset paging requires the results to be entities with an identifier.");
+			}
+
+			return identifier;
+		}
+	}
+}
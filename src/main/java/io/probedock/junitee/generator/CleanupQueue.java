@@ -0,0 +1,282 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.junitee.utils.ShutdownSequence;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * The cleanup queue runs the cleanups of the tests in background for the whole JVM. The cleanups
+ * are run one after the other by a single worker in the order they are submitted. The queue is bounded, when it is full the
+ * test thread waits for a free slot, it never runs the cleanup itself.
+ *
+ * The pending cleanups are kept per entity manager factory (persistence unit). Before generating
+ * data on a persistence unit, the pending cleanups of that persistence unit are drained to avoid
+ * collisions with the data of the previous tests. The pending cleanups are also drained when the
+ * JVM shuts down, before the shared data are cleaned and the entity manager factories closed.
+ *
+ * The failures are also kept per entity manager factory. They are only reported to the managers
+ * with the asynchronous cleanup enabled that check the failures of that factory, the failures
+ * never reported are logged when the JVM shuts down.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+final class CleanupQueue {
+	private static final Logger LOG = Logger.getLogger(CleanupQueue.class.getCanonicalName());
+
+	/**
+	 * Maximum number of cleanups waiting for the worker
+	 */
+	static final int CAPACITY = 16;
+
+	/**
+	 * The pending cleanups per entity manager factory
+	 */
+	private static final Map<EntityManagerFactory, List<Future<Void>>> PENDING = new HashMap<>();
+
+	/**
+	 * The failures not yet reported per entity manager factory
+	 */
+	private static final Map<EntityManagerFactory, List<Throwable>> FAILURES = new HashMap<>();
+
+	/**
+	 * The worker, created on demand
+	 */
+	private static ThreadPoolExecutor executor;
+
+	private CleanupQueue() {}
+
+	/**
+	 * Submit a cleanup to run in background
+	 *
+	 * @param factories The entity manager factories touched by the cleanup
+	 * @param cleanup The cleanup to run
+	 */
+	static void submit(final Collection<EntityManagerFactory> factories, final Callable<Void> cleanup) {
+		FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					return cleanup.call();
+				}
+				catch (Exception | Error e) {
+					recordFailure(factories, e);
+					throw e;
+				}
+			}
+		});
+
+		synchronized (CleanupQueue.class) {
+			for (EntityManagerFactory factory : factories) {
+				List<Future<Void>> pending = PENDING.get(factory);
+
+				if (pending == null) {
+					pending = new ArrayList<>();
+					PENDING.put(factory, pending);
+				}
+
+				// Forget the cleanups already done, their failures are recorded by themselves
+				for (Iterator<Future<Void>> it = pending.iterator(); it.hasNext();) {
+					if (it.next().isDone()) {
+						it.remove();
+					}
+				}
+
+				pending.add(task);
+			}
+		}
+
+		// Outside of the lock as the caller waits for a free slot when the queue is full
+		getExecutor().execute(task);
+	}
+
+	/**
+	 * Wait for the pending cleanups of entity manager factories. Their failures are kept
+	 * to be reported by {@link #checkFailures(Collection)}.
+	 *
+	 * @param factories The entity manager factories
+	 * @throws DataGeneratorException When interrupted while waiting
+	 */
+	static void await(Collection<EntityManagerFactory> factories) throws DataGeneratorException {
+		List<Future<Void>> pending = new ArrayList<>();
+
+		synchronized (CleanupQueue.class) {
+			for (EntityManagerFactory factory : factories) {
+				List<Future<Void>> futures = PENDING.remove(factory);
+
+				if (futures != null) {
+					pending.addAll(futures);
+				}
+			}
+		}
+
+		awaitFutures(pending);
+	}
+
+	/**
+	 * Wait for all the pending cleanups. Their failures are kept to be reported by
+	 * {@link #checkFailures(Collection)}.
+	 *
+	 * @throws DataGeneratorException When interrupted while waiting
+	 */
+	static void awaitAll() throws DataGeneratorException {
+		List<Future<Void>> pending = new ArrayList<>();
+
+		synchronized (CleanupQueue.class) {
+			for (List<Future<Void>> futures : PENDING.values()) {
+				pending.addAll(futures);
+			}
+			PENDING.clear();
+		}
+
+		awaitFutures(pending);
+	}
+
+	/**
+	 * Report the failures of the cleanups done on entity manager factories. The failures
+	 * reported are forgotten for these factories.
+	 *
+	 * @param factories The entity manager factories
+	 * @throws DataGeneratorException When one of the cleanups done on the factories failed
+	 */
+	static void checkFailures(Collection<EntityManagerFactory> factories) throws DataGeneratorException {
+		Throwable failure = null;
+
+		synchronized (CleanupQueue.class) {
+			for (EntityManagerFactory factory : factories) {
+				List<Throwable> failures = FAILURES.remove(factory);
+
+				if (failure == null && failures != null) {
+					failure = failures.get(0);
+				}
+			}
+		}
+
+		if (failure != null) {
+			throw new DataGeneratorException("The asynchronous cleanup of a previous test failed.", failure);
+		}
+	}
+
+	/**
+	 * Keep the failure of a cleanup for the entity manager factories it touched
+	 *
+	 * @param factories The entity manager factories
+	 * @param failure The failure
+	 */
+	private static synchronized void recordFailure(Collection<EntityManagerFactory> factories, Throwable failure) {
+		for (EntityManagerFactory factory : factories) {
+			List<Throwable> failures = FAILURES.get(factory);
+
+			if (failures == null) {
+				failures = new ArrayList<>();
+				FAILURES.put(factory, failures);
+			}
+
+			failures.add(failure);
+		}
+	}
+
+	/**
+	 * Wait for cleanups, their failures are recorded by the cleanups themselves
+	 *
+	 * @param pending The cleanups to wait for
+	 * @throws DataGeneratorException When interrupted while waiting
+	 */
+	private static void awaitFutures(List<Future<Void>> pending) throws DataGeneratorException {
+		for (Future<Void> future : pending) {
+			try {
+				future.get();
+			}
+			catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new DataGeneratorException("Interrupted while waiting for the pending cleanups.", ie);
+			}
+			catch (ExecutionException ee) {
+				/* Already recorded for the factories of the cleanup */
+			}
+		}
+	}
+
+	/**
+	 * @return The worker, created and registered in the shutdown sequence on first use
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(CAPACITY), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "junitee-cleanup");
+					thread.setDaemon(true);
+					return thread;
+				}
+			}, new RejectedExecutionHandler() {
+				@Override
+				public void rejectedExecution(Runnable task, ThreadPoolExecutor rejectingExecutor) {
+					// Running the cleanup on the caller would break the order and run it along the worker
+					if (rejectingExecutor.isShutdown()) {
+						throw new RejectedExecutionException("The cleanup worker is shut down.");
+					}
+
+					try {
+						rejectingExecutor.getQueue().put(task);
+					}
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new RejectedExecutionException("Interrupted while waiting for a free slot in the cleanup queue.", ie);
+					}
+				}
+			});
+
+			// The pending cleanups are drained first in the shutdown sequence as they need the entity manager factories
+			ShutdownSequence.register(ShutdownSequence.Phase.DRAIN_CLEANUPS, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						awaitAll();
+					}
+					catch (DataGeneratorException dge) {
+						LOG.log(Level.SEVERE, "Unable to run the pending cleanups", dge);
+					}
+
+					logUnreportedFailures();
+				}
+			});
+		}
+
+		return executor;
+	}
+
+	/**
+	 * Log the failures never reported to a test and forget them
+	 */
+	private static synchronized void logUnreportedFailures() {
+		List<Throwable> logged = new ArrayList<>();
+
+		for (List<Throwable> failures : FAILURES.values()) {
+			for (Throwable failure : failures) {
+				if (!logged.contains(failure)) {
+					LOG.log(Level.SEVERE, "The asynchronous cleanup of a test failed", failure);
+					logged.add(failure);
+				}
+			}
+		}
+
+		FAILURES.clear();
+	}
+}
@@ -1,5 +1,6 @@
 package io.probedock.junitee.generator;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,22 +14,20 @@ import java.util.Map;
  * Basically, you have to override the setup method to put the code you need
  * to register and setup your data generators to be run in the correct order.
  * 
+ * The registered data generators form a graph. They are generated in topological
+ * order and cleaned in reverse topological order, one after the other. The data
+ * generators share the entity manager and the transaction of the composite data
+ * generator, so they are never run in parallel.
+ * 
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
 public abstract class CompositeDataGenerator implements IDataGenerator {
 	/**
 	 * Maintains the state of the data generation order when
 	 * register methods are called to register data generators
-	 * in certain order.
-	 */
-	private DataGeneratorRunner first;
-	
-	/**
-	 * Shortcut reference to keep the current last data generator
-	 * runner registered into the composite generator. It helps to
-	 * add new data generator at the end in O(1) operation.
+	 * with their dependencies.
 	 */
-	private DataGeneratorRunner last;
+	private DataGeneratorGraph graph = new DataGeneratorGraph();
 	
 	/**
 	 * Keep a list of dependencies that can be used into
@@ -108,6 +107,13 @@ public abstract class CompositeDataGenerator implements IDataGenerator {
 		return this;
 	}
 
+	/**
+	 * @return The data generators this composite depends on
+	 */
+	Collection<IDataGenerator> getDependencies() {
+		return dataGenerators.values();
+	}
+
 	/**
 	 * @return The configuration value for the number to generate
 	 */
@@ -160,14 +166,40 @@ public abstract class CompositeDataGenerator implements IDataGenerator {
 	 * @param dataGenerator The data generator to register
 	 */
 	protected final void register(IDataGenerator dataGenerator) {
-		if (first == null) {
-			first = last = new DataGeneratorRunner(dataGenerator);
+		IDataGenerator last = graph.getLast();
+
+		if (last == null) {
+			graph.add(dataGenerator);
 		}
 		else {
-			last = last.setNext(dataGenerator);
+			graph.add(dataGenerator, last);
 		}
 	}
 	
+	/**
+	 * Register a data generator without dependency. It runs before the data generators
+	 * registered after it that depend on it.
+	 * 
+	 * @param dataGenerator The data generator to register
+	 */
+	protected final void registerRoot(IDataGenerator dataGenerator) {
+		graph.add(dataGenerator);
+	}
+	
+	/**
+	 * Register a data generator to be run after the given data generators only. The
+	 * data generators without dependency between them run in registration order. The 
+	 * dependencies declared through {@link #dependsOn(IDataGenerator)} by a registered
+	 * composite data generator on another registered data generator are also respected.
+	 * 
+	 * @param dataGenerator The data generator to register
+	 * @param after The data generators to run before, they must be already registered
+	 * @see #registerRoot(IDataGenerator)
+	 */
+	protected final void register(IDataGenerator dataGenerator, IDataGenerator... after) {
+		graph.add(dataGenerator, after);
+	}
+	
 	/**
 	 * The setup method must be override to setup the different
 	 * things in the composite generator. 
@@ -191,13 +223,12 @@ public abstract class CompositeDataGenerator implements IDataGenerator {
 	
 	@Override
 	public final void generate() {
+		graph = new DataGeneratorGraph();
 		setup();
 		
-		if (first  != null) {
-			first.generate();
-		}
+		graph.generate();
 
-			generateData();
+		generateData();
 	}
 
 	/**
@@ -213,8 +244,6 @@ public abstract class CompositeDataGenerator implements IDataGenerator {
 	public final void cleanup() {
 		cleanData();
 		
-		if (last != null) {
-			last.cleanup();
-		}
+		graph.cleanup();
 	}
 }
@@ -0,0 +1,187 @@
+package io.probedock.junitee.generator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The data generator graph keeps the data generators registered into a composite
+ * data generator with the dependencies between them.
+ *
+ * The generation runs the data generators in topological order and the cleanup in
+ * the reverse topological order, one after the other in the current thread. The data
+ * generators without dependency between them keep their registration order. The
+ * independent branches are deliberately not run concurrently: all the data generators
+ * use the entity manager of the composite, which is not thread safe, and its transaction.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+class DataGeneratorGraph {
+	/**
+	 * The runners in registration order
+	 */
+	private final List<DataGeneratorRunner> runners = new ArrayList<>();
+
+	/**
+	 * The runners per data generator instance
+	 */
+	private final Map<IDataGenerator, DataGeneratorRunner> runnersByDataGenerator = new IdentityHashMap<>();
+
+	/**
+	 * Add a data generator to the graph
+	 *
+	 * @param dataGenerator The data generator to add
+	 * @param dependencies The data generators to run before, they must be already added
+	 * @exception IllegalArgumentException When the data generator is already added or a dependency is not added
+	 */
+	void add(IDataGenerator dataGenerator, IDataGenerator... dependencies) {
+		if (runnersByDataGenerator.containsKey(dataGenerator)) {
+			throw new IllegalArgumentException("Data generator " + dataGenerator.getClass().getCanonicalName() + " already registered.");
+		}
+
+		DataGeneratorRunner runner = new DataGeneratorRunner(dataGenerator);
+
+		for (IDataGenerator dependency : dependencies) {
+			DataGeneratorRunner dependencyRunner = runnersByDataGenerator.get(dependency);
+
+			if (dependencyRunner == null) {
+				throw new IllegalArgumentException("The data generator " + dependency.getClass().getCanonicalName() + " must be registered before being used as a dependency.");
+			}
+
+			runner.dependsOn(dependencyRunner);
+		}
+
+		runners.add(runner);
+		runnersByDataGenerator.put(dataGenerator, runner);
+	}
+
+	/**
+	 * @return The last data generator added, null if the graph is empty
+	 */
+	IDataGenerator getLast() {
+		return runners.isEmpty() ? null : runners.get(runners.size() - 1).getDataGenerator();
+	}
+
+	/**
+	 * Run the generation of the data generators in topological order
+	 */
+	void generate() {
+		Map<DataGeneratorRunner, List<DataGeneratorRunner>> prerequisites = new HashMap<>();
+
+		for (DataGeneratorRunner runner : runners) {
+			prerequisites.put(runner, allDependencies(runner));
+		}
+
+		run(prerequisites, true);
+	}
+
+	/**
+	 * Run the cleanup of the data generators in reverse topological order
+	 */
+	void cleanup() {
+		Map<DataGeneratorRunner, List<DataGeneratorRunner>> prerequisites = new HashMap<>();
+
+		for (DataGeneratorRunner runner : runners) {
+			prerequisites.put(runner, new ArrayList<DataGeneratorRunner>());
+		}
+
+		// The dependents of a data generator must be cleaned before it
+		for (DataGeneratorRunner runner : runners) {
+			for (DataGeneratorRunner dependency : allDependencies(runner)) {
+				prerequisites.get(dependency).add(runner);
+			}
+		}
+
+		run(prerequisites, false);
+	}
+
+	/**
+	 * Retrieve the dependencies of a runner. The explicit dependencies are completed by the
+	 * dependencies declared with {@link CompositeDataGenerator#dependsOn(IDataGenerator)}
+	 * when the data generator is a composite one and the dependency is part of the graph.
+	 *
+	 * @param runner The runner
+	 * @return The runners to run before
+	 */
+	private List<DataGeneratorRunner> allDependencies(DataGeneratorRunner runner) {
+		List<DataGeneratorRunner> dependencies = new ArrayList<>(runner.getDependencies());
+
+		if (runner.getDataGenerator() instanceof CompositeDataGenerator) {
+			for (IDataGenerator dependency : ((CompositeDataGenerator) runner.getDataGenerator()).getDependencies()) {
+				DataGeneratorRunner dependencyRunner = runnersByDataGenerator.get(dependency);
+
+				if (dependencyRunner != null && dependencyRunner != runner && !dependencies.contains(dependencyRunner)) {
+					dependencies.add(dependencyRunner);
+				}
+			}
+		}
+
+		return dependencies;
+	}
+
+	/**
+	 * Run the runners once all their prerequisites are run. The runners without prerequisite
+	 * are run in registration order (reversed for the cleanup), the others as soon as their
+	 * last prerequisite is run.
+	 *
+	 * @param prerequisites The runners to run before each runner
+	 * @param generate True to generate, false to cleanup
+	 * @exception IllegalStateException When there is a dependency cycle
+	 */
+	private void run(Map<DataGeneratorRunner, List<DataGeneratorRunner>> prerequisites, boolean generate) {
+		Map<DataGeneratorRunner, Integer> remaining = new HashMap<>();
+		Map<DataGeneratorRunner, List<DataGeneratorRunner>> successors = new HashMap<>();
+
+		for (DataGeneratorRunner runner : runners) {
+			successors.put(runner, new ArrayList<DataGeneratorRunner>());
+		}
+
+		for (DataGeneratorRunner runner : runners) {
+			remaining.put(runner, prerequisites.get(runner).size());
+			for (DataGeneratorRunner prerequisite : prerequisites.get(runner)) {
+				successors.get(prerequisite).add(runner);
+			}
+		}
+
+		List<DataGeneratorRunner> ordered = new ArrayList<>(runners);
+		if (!generate) {
+			Collections.reverse(ordered);
+		}
+
+		LinkedList<DataGeneratorRunner> ready = new LinkedList<>();
+		for (DataGeneratorRunner runner : ordered) {
+			if (remaining.get(runner) == 0) {
+				ready.add(runner);
+			}
+		}
+
+		int done = 0;
+		while (!ready.isEmpty()) {
+			DataGeneratorRunner runner = ready.removeFirst();
+
+			if (generate) {
+				runner.getDataGenerator().generate();
+			}
+			else {
+				runner.getDataGenerator().cleanup();
+			}
+			done++;
+
+			for (DataGeneratorRunner successor : successors.get(runner)) {
+				int count = remaining.get(successor) - 1;
+				remaining.put(successor, count);
+				if (count == 0) {
+					ready.add(successor);
+				}
+			}
+		}
+
+		if (done < runners.size()) {
+			throw new IllegalStateException("There is a dependency cycle between the registered data generators.");
+		}
+	}
+}
@@ -3,14 +3,30 @@ package io.probedock.junitee.generator;
 import io.probedock.junitee.annotations.DataGenerator;
 import io.probedock.junitee.dependency.DependencyInjector;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 import io.probedock.junitee.utils.EntityManagerHolder;
-import net.sf.cglib.proxy.Enhancer;
 import net.sf.cglib.proxy.MethodInterceptor;
 import net.sf.cglib.proxy.MethodProxy;
 import org.junit.rules.TestRule;
@@ -34,15 +50,72 @@ public class DataGeneratorManager implements TestRule {
 	private EntityManagerHolder entityManagerHolder;
 
 	/**
-	 * Keep track of generators to be able to retrieve a data generator directly in a test
+	 * Keep track of the generators configured on the test class. They are generated once
+	 * before the first test and cleaned once after the last test of the class.
 	 */
-	private Map<Class, IDataGenerator> dataGenerators = new HashMap<>();
+	private Map<Class, IDataGenerator> classDataGenerators = new HashMap<>();
 
 	/**
-	 * Determine if a test is running or not. This is required to enable/disable
-	 * the behavior of method interceptions during the test method run.
+	 * The state of the test executed by the current thread. The state is confined to the
+	 * thread to let the tests run in parallel with the same manager.
 	 */
-	private static Boolean testRunning = false;
+	private final ThreadLocal<TestScope> testScope = new ThreadLocal<TestScope>() {
+		@Override
+		protected TestScope initialValue() {
+			return new TestScope();
+		}
+	};
+
+	/**
+	 * Define if the data of a test can be reused by the next test when nothing has been
+	 * written through the data generators.
+	 */
+	private boolean dataReuse = false;
+
+	/**
+	 * Determine if the manager is applied around a test class (as class rule)
+	 */
+	private volatile boolean classRunning = false;
+
+	/**
+	 * Define if the entities persisted through the data generators are tracked to be deleted automatically
+	 */
+	private boolean entityTracking = false;
+
+	/**
+	 * The entity trackers of the test class data generators per entity manager
+	 */
+	private Map<EntityManager, EntityTracker> classEntityTrackers = new ConcurrentHashMap<>();
+
+	/**
+	 * Define if the data generators bound to different entity managers run concurrently
+	 */
+	private boolean parallelPersistenceUnits = false;
+
+	/**
+	 * The executor with one worker per persistence unit shared by all the managers of the JVM, created on demand
+	 */
+	private static ExecutorService persistenceUnitExecutor;
+
+	/**
+	 * Define if the cleanups of the test methods run in background
+	 */
+	private boolean asyncCleanup = false;
+
+	/**
+	 * The entity manager factories of the cleanups run in background by this manager
+	 */
+	private final Set<EntityManagerFactory> asyncCleanupFactories = new HashSet<>();
+
+	/**
+	 * Define if the cleanups of the test methods are deferred to the end of the test class
+	 */
+	private boolean deferredCleanup = false;
+
+	/**
+	 * The cleanups of the test methods deferred to the end of the test class in test order
+	 */
+	private final List<DeferredCleanup> deferredCleanups = new ArrayList<>();
 
 	/**
 	 * Force the configuration to be present
@@ -56,22 +129,364 @@ public class DataGeneratorManager implements TestRule {
 		this.entityManagerHolder = entityManagerHolder;
 	}
 
+	/**
+	 * Apply the data generation around a test method when used as a rule, or around
+	 * the whole test class when used as a class rule. In that last case, the data
+	 * generators configured on the test class are generated once and cleaned once.
+	 *
+	 * @param base The statement to evaluate
+	 * @param description The description of the test method or of the test class
+	 * @return The statement
+	 */
 	@Override
 	public Statement apply(final Statement base, final Description description) {
-		return new Statement() {
-			@Override
-			public void evaluate() throws Throwable {
-				try {
-					generate(description);
-					testRunning = true;
-					base.evaluate();
+		if (description.isSuite()) {
+			return new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					DataGenerator dgAnnotation = description.getAnnotation(DataGenerator.class);
+					checkClassDataGenerators(dgAnnotation);
+					EntityManagerHolder classEntityManagerHolder = null;
+					try {
+						generate(dgAnnotation, classDataGenerators);
+
+						// The asynchronous cleanups hand the entity managers of the holder over, the class data generators keep their own ones
+						if (asyncCleanup && !entityManagerHolder.isPerThread() && dgAnnotation != null) {
+							classEntityManagerHolder = entityManagerHolder.handOverEntityManagers();
+						}
+
+						classRunning = true;
+						base.evaluate();
+					}
+					finally {
+						classRunning = false;
+						try {
+							// The data of the test methods must be removed before the data of the class
+							CleanupQueue.awaitAll();
+							checkAsyncCleanupFailures();
+							try {
+								cleanupRetainedData();
+							}
+							finally {
+								cleanupDeferred();
+							}
+						}
+						finally {
+							cleanupClass(dgAnnotation, classEntityManagerHolder);
+							classDataGenerators.clear();
+						}
+					}
 				}
-				finally {
-					testRunning = false;
-					cleanup(description);
+			};
+		}
+		else {
+			return new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					// Report the failures of the cleanups already done in background
+					checkAsyncCleanupFailures();
+
+					DataGenerator dgAnnotation = description.getAnnotation(DataGenerator.class);
+					TestScope scope = testScope.get();
+					boolean succeeded = false;
+					scope.dirty = false;
+					try {
+						if (!reuseRetainedData(dgAnnotation)) {
+							generate(dgAnnotation, scope.dataGenerators);
+						}
+						scope.testRunning = true;
+						base.evaluate();
+						succeeded = true;
+					}
+					finally {
+						scope.testRunning = false;
+						if (succeeded && canRetainData(dgAnnotation)) {
+							scope.retainedAnnotation = dgAnnotation;
+						}
+						else if (canDeferCleanup(dgAnnotation)) {
+							deferCleanup(dgAnnotation, scope);
+						}
+						else if (canCleanupAsync(dgAnnotation)) {
+							cleanupAsync(dgAnnotation, scope);
+						}
+						else {
+							cleanup(dgAnnotation, scope.dataGenerators);
+						}
+					}
 				}
+			};
+		}
+	}
+
+	/**
+	 * Enable the reuse of the data between consecutive tests. When a test declares the
+	 * same data generators as the previous one and nothing has been written through the
+	 * data generators during the previous test, the cleanup and the generation are skipped.
+	 * <p>
+	 * The reuse is only active when the manager is also applied as a class rule. The data
+	 * still retained are cleaned at the end of the test class. Writes done without the data
+	 * generators (through the API under test by example) are not detected, use {@link #markDirty()}
+	 * in such a case. The reuse is disabled when the holder hands out one entity manager per thread.
+	 *
+	 * @return This
+	 */
+	public DataGeneratorManager enableDataReuse() {
+		dataReuse = true;
+		return this;
+	}
+
+	/**
+	 * Enable the tracking of the entities persisted through the data generators. The entity
+	 * manager injected into the data generators records the type and the identifier of each entity
+	 * given to its persist method. During the cleanup, once the cleanup methods of the data generators
+	 * are run, the tracked entities are deleted with bulk delete statements per entity type, the entity
+	 * types in the reverse order of their first insertion.
+	 *
+	 * @return This
+	 */
+	public DataGeneratorManager enableEntityTracking() {
+		entityTracking = true;
+		return this;
+	}
+
+	/**
+	 * Enable the parallel execution per persistence unit. The data generators bound to different
+	 * entity managers are generated and cleaned concurrently, one worker per entity manager. The
+	 * data generators of the same entity manager still run in the order of the annotation. The
+	 * flush and the commit of the entity managers are also done concurrently. When the flush of one
+	 * entity manager fails, the transactions of all the entity managers are rolled back.
+	 * <p>
+	 * Take care that a data generator must not rely on the data generated through another entity
+	 * manager when this mode is enabled.
+	 *
+	 * @return This
+	 */
+	public DataGeneratorManager enableParallelPersistenceUnits() {
+		parallelPersistenceUnits = true;
+		return this;
+	}
+
+	/**
+	 * Enable the cleanup in background. The cleanup of a test method is queued to a background
+	 * worker and the next test starts without waiting for it. Before any generation, the pending
+	 * cleanups of the same persistence units are drained. They are also drained at the end of the
+	 * test class (when the manager is applied as class rule) and when the JVM shuts down. A failure
+	 * of a cleanup fails the next generation on the same persistence unit of a manager with the
+	 * asynchronous cleanup enabled, or the next test of this manager (the end of the class when it is
+	 * applied as class rule). The managers without the asynchronous cleanup never report it.
+	 * <p>
+	 * The entity managers of the test are handed over to the worker which closes them after the
+	 * cleanup. The holder creates new entity managers for the next tests. When the manager is applied
+	 * as class rule, the entity managers of the class data generators are also handed over once the
+	 * class data are generated, so the tests never share them with the worker. The cleanup stays
+	 * synchronous when the holder hands out one entity manager per thread.
+	 *
+	 * @return This
+	 */
+	public DataGeneratorManager enableAsyncCleanup() {
+		asyncCleanup = true;
+		return this;
+	}
+
+	/**
+	 * Enable the deferred cleanup. The cleanups of the test methods are recorded in place of being run
+	 * and are all executed at the end of the test class with one transaction per entity manager. The
+	 * entities tracked for the different tests (see {@link #enableEntityTracking()}) are merged to be
+	 * deleted with the same bulk delete statements.
+	 * <p>
+	 * The deferral is only active when the manager is also applied as a class rule. Take care that the
+	 * data of the previous tests are still present when a test runs. The deferral is disabled when the
+	 * holder hands out one entity manager per thread as the data generators of each test are bound to
+	 * the entity managers of the thread that ran it.
+	 *
+	 * @return This
+	 */
+	public DataGeneratorManager enableDeferredCleanup() {
+		deferredCleanup = true;
+		return this;
+	}
+
+	/**
+	 * Check that the data generators of the test class can be used by all the test threads. In the per
+	 * thread mode, each thread has its own entity managers, so only the shared data generators which
+	 * have their own entity manager can be configured on the test class.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test class
+	 * @throws DataGeneratorException When a data generator of the test class is bound to the entity manager of the class thread
+	 */
+	private void checkClassDataGenerators(DataGenerator dgAnnotation) throws DataGeneratorException {
+		if (dgAnnotation == null || !entityManagerHolder.isPerThread()) {
+			return;
+		}
+
+		for (Class<? extends IDataGenerator> dataGeneratorClass : dgAnnotation.value()) {
+			if (!SharedDataGeneratorRegistry.isShared(dataGeneratorClass)) {
+				throw new DataGeneratorException("The data generator " + dataGeneratorClass.getCanonicalName() + " cannot be configured on the test class "
+					+ "with per thread entity managers. Configure it on the test methods or annotate it with @SharedDataGenerator.");
+			}
+		}
+	}
+
+	/**
+	 * Mark the data of the current test as modified. The data will be cleaned and generated
+	 * again for the next test even when the data reuse is enabled.
+	 */
+	public void markDirty() {
+		testScope.get().dirty = true;
+	}
+
+	/**
+	 * Execute a block of code into one transaction per entity manager. The create, update and
+	 * delete methods called from the block join that transaction instead of running each into its own
+	 * transaction. The transaction of an entity manager is started by the first call using it.
+	 *
+	 * @param block The block to execute
+	 * @throws DataGeneratorException When the block fails, the transactions are rolled back
+	 */
+	public void executeInBatch(Runnable block) throws DataGeneratorException {
+		executeInBatch(0, block);
+	}
+
+	/**
+	 * Execute a block of code into one transaction per entity manager. The create, update and
+	 * delete methods called from the block join that transaction instead of running each into its own
+	 * transaction. The transaction of an entity manager is started by the first call using it, so only
+	 * the persistence units touched by the block are involved. Every flush interval calls, the entity
+	 * manager is flushed and cleared to keep the persistence context small. Take care that the entities
+	 * created before a clear are detached.
+	 * <p>
+	 * When a batch is already running, the block simply joins it.
+	 *
+	 * @param flushInterval The number of create/update/delete calls between two flushes, zero or less to never flush
+	 * @param block The block to execute
+	 * @throws DataGeneratorException When the block fails, the transactions are rolled back
+	 */
+	public void executeInBatch(int flushInterval, Runnable block) throws DataGeneratorException {
+		TestScope scope = testScope.get();
+
+		if (scope.batchRunning) {
+			block.run();
+			return;
+		}
+
+		scope.batchRunning = true;
+		scope.batchFlushInterval = flushInterval;
+		scope.batchCalls = 0;
+		scope.batchEntityManagers.clear();
+
+		boolean committed = false;
+		try {
+			block.run();
+			commitTransaction(scope.batchEntityManagers);
+			committed = true;
+		}
+		catch (Exception e) {
+			LOG.log(Level.SEVERE, "Unknown error", e);
+			throw new DataGeneratorException("An unexpected error occurred during the batch execution.", e);
+		}
+		finally {
+			scope.batchRunning = false;
+
+			// Errors (failed assertions by example) must not leave the transactions active
+			Collection<EntityManager> entityManagers = new ArrayList<>(scope.batchEntityManagers);
+			scope.batchEntityManagers.clear();
+
+			if (!committed) {
+				rollbackTransaction(entityManagers);
 			}
-		};
+			clearEntityManagers(entityManagers);
+		}
+	}
+
+	/**
+	 * Start the transaction of the running batch on an entity manager used for the first time by the batch
+	 *
+	 * @param entityManager The entity manager used by a create/update/delete call
+	 */
+	private void joinBatch(EntityManager entityManager) {
+		TestScope scope = testScope.get();
+
+		if (scope.batchRunning && !entityManager.getTransaction().isActive()) {
+			entityManager.getTransaction().begin();
+			scope.batchEntityManagers.add(entityManager);
+		}
+	}
+
+	/**
+	 * Keep track of a create/update/delete call done during a batch to flush and clear
+	 * the entity manager periodically.
+	 *
+	 * @param entityManager The entity manager used by the call
+	 */
+	private void batchCallDone(EntityManager entityManager) {
+		TestScope scope = testScope.get();
+
+		if (scope.batchRunning && scope.batchFlushInterval > 0 && ++scope.batchCalls % scope.batchFlushInterval == 0) {
+			entityManager.flush();
+
+			// The flushed entities must not stay referenced by the trackers until the commit
+			resolveTrackedEntities(entityManager);
+
+			entityManager.clear();
+		}
+	}
+
+	/**
+	 * @return True when a test or a batch is running on the current thread
+	 */
+	private boolean isRunning() {
+		TestScope scope = testScope.get();
+		return scope.testRunning || scope.batchRunning;
+	}
+
+	/**
+	 * Check if the data of a test can be kept for the next test
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @return True if the data can be kept
+	 */
+	private boolean canRetainData(DataGenerator dgAnnotation) {
+		return dataReuse && classRunning && !entityManagerHolder.isPerThread() && !testScope.get().dirty && dgAnnotation != null && dgAnnotation.executeCleanup();
+	}
+
+	/**
+	 * Reuse the data retained from the previous test if possible. When the data cannot
+	 * be reused, they are cleaned.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @return True if the data are reused
+	 * @throws DataGeneratorException When the cleanup of the retained data fails
+	 */
+	private boolean reuseRetainedData(DataGenerator dgAnnotation) throws DataGeneratorException {
+		TestScope scope = testScope.get();
+
+		if (scope.retainedAnnotation == null) {
+			return false;
+		}
+
+		if (dgAnnotation != null && Arrays.equals(scope.retainedAnnotation.value(), dgAnnotation.value())) {
+			scope.retainedAnnotation = null;
+			return true;
+		}
+
+		cleanupRetainedData();
+
+		return false;
+	}
+
+	/**
+	 * Cleanup the data retained from the previous test if any
+	 *
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	private void cleanupRetainedData() throws DataGeneratorException {
+		TestScope scope = testScope.get();
+
+		if (scope.retainedAnnotation != null) {
+			DataGenerator annotation = scope.retainedAnnotation;
+			scope.retainedAnnotation = null;
+			cleanup(annotation, scope.dataGenerators);
+		}
 	}
 
 	/**
@@ -83,10 +498,16 @@ public class DataGeneratorManager implements TestRule {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T extends IDataGenerator> T getDataGenerator(Class<T> dataGeneratorClass) {
+		Map<Class, IDataGenerator> dataGenerators = testScope.get().dataGenerators;
+
 		// Check if the data generator exists
 		if (dataGenerators.containsKey(dataGeneratorClass)) {
 			return (T) dataGenerators.get(dataGeneratorClass);
 		}
+		// Check if the data generator exists at the class level
+		else if (classDataGenerators.containsKey(dataGeneratorClass)) {
+			return (T) classDataGenerators.get(dataGeneratorClass);
+		}
 		// Unknown data generator
 		else {
 			throw new RuntimeException(new DataGeneratorException("The data generator " + dataGeneratorClass.getCanonicalName() + " is not present in the annotation."));
@@ -96,45 +517,52 @@ public class DataGeneratorManager implements TestRule {
 	/**
 	 * Actions to generate data
 	 *
-	 * @param description The description to get test data
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @param dataGenerators The data generators of the scope (method or class)
 	 * @throws Throwable Any errors
 	 */
-	private void generate(Description description) throws DataGeneratorException {
+	private void generate(DataGenerator dgAnnotation, Map<Class, IDataGenerator> dataGenerators) throws DataGeneratorException {
 		// Clear the generators used in a previous test. Clear must be there because 
 		// there is no warranty to reach the after if a test fails.
 		dataGenerators.clear();
-
-		DataGenerator dgAnnotation = description.getAnnotation(DataGenerator.class);
+		entityTrackersOf(dataGenerators).clear();
 
 		if (dgAnnotation == null) {
 			return;
 		}
 
+		// Wait for the cleanups of the previous tests still running in background on the same persistence units
+		Collection<EntityManagerFactory> factories = entityManagerFactoriesOf(dgAnnotation);
+		CleanupQueue.await(factories);
+		if (asyncCleanup) {
+			CleanupQueue.checkFailures(factories);
+		}
+
 		// Retrieve all the data generators defined for the test method.
-		for (Class<? extends IDataGenerator> dataGeneratorClass : dgAnnotation.value()) {
-			EntityManager entityManager = entityManagerHolder.retrieveEntityManagerFromDataGenerator(dataGeneratorClass);
+		for (final Class<? extends IDataGenerator> dataGeneratorClass : dgAnnotation.value()) {
+			final EntityManager entityManager = entityManagerHolder.retrieveEntityManagerFromDataGenerator(dataGeneratorClass);
 
 			if (entityManager == null) {
 				throw new DataGeneratorException("Entity manager is null for " +
 					dataGeneratorClass.getCanonicalName() + ". Holder state: " + entityManagerHolder.toString());
 			}
 
+			// Check if the data generator is already generated for the whole test class
+			if (dataGenerators != classDataGenerators && classDataGenerators.containsKey(dataGeneratorClass)) {
+				LOG.log(Level.SEVERE, "The data generator [" + dataGeneratorClass.getCanonicalName() + "] is already instantiated for the test class.");
+				throw new DataGeneratorException("The data generator " + dataGeneratorClass.getCanonicalName() + " is already registered on the test class. "
+					+ "It cannot be specified again in the annotation of the test method.");
+			}
+
 			// Check if the data generator is already instantiated.
 			if (!dataGenerators.containsKey(dataGeneratorClass)) {
-				try {
-					// Instantiate a new data generator proxy, inject the EJB and keep track of it.
-					IDataGenerator dataGenerator = (IDataGenerator) Enhancer.create(
-						dataGeneratorClass,
-						new Class[] {IDataGenerator.class},
-						new GeneratorCallback(entityManager)
-					);
-
-					DependencyInjector.inject(dataGenerator, entityManager, true);
-					dataGenerators.put(dataGeneratorClass, dataGenerator);
+				// Acquire the shared data generator, it is generated only the first time it is acquired
+				if (SharedDataGeneratorRegistry.isShared(dataGeneratorClass)) {
+					dataGenerators.put(dataGeneratorClass, SharedDataGeneratorRegistry.acquire(
+						dataGeneratorClass, entityManagerHolder.retrieveFactoryFromDataGenerator(dataGeneratorClass)));
 				}
-				catch (Exception ex) {
-					LOG.log(Level.SEVERE, "Injection failed during the creation of the data generator: " + dataGeneratorClass.getCanonicalName(), ex);
-					throw new DataGeneratorException("Unable to instantiate the data generator " + dataGeneratorClass.getCanonicalName(), ex);
+				else {
+					dataGenerators.put(dataGeneratorClass, createDataGenerator(this, dataGeneratorClass, entityManager, injectedEntityManager(dataGeneratorClass, entityManager, dataGenerators), null));
 				}
 			}
 			else {
@@ -144,116 +572,793 @@ public class DataGeneratorManager implements TestRule {
 			}
 		}
 
+		Collection<EntityManager> entityManagers = usedEntityManagers(dgAnnotation);
+
 		try {
-			startTransaction();
-			Class<? extends IDataGenerator>[] dataGeneratorClass = dgAnnotation.value();
-			for (int i = 0; i < dataGeneratorClass.length; i++) {
-				getDataGenerator(dataGeneratorClass[i]).generate();
-			}
-			commitTransaction();
+			startTransaction(entityManagers);
+			final Map<EntityManager, List<IDataGenerator>> dataGeneratorsPerManager = groupByEntityManager(dgAnnotation, dataGenerators, false);
+			forEachEntityManager(dataGeneratorsPerManager.keySet(), new EntityManagerTask() {
+				@Override
+				public void run(EntityManager entityManager) {
+					for (IDataGenerator dataGenerator : dataGeneratorsPerManager.get(entityManager)) {
+						dataGenerator.generate();
+					}
+				}
+			});
+			commitTransaction(entityManagers);
 		}
 		catch (Exception e) {
 			LOG.log(Level.SEVERE, "Unknown error", e);
-			rollbackTransaction();
+			rollbackTransaction(entityManagers);
 			throw new DataGeneratorException("An unexpected error occurred during the data generation. Holder state: " + entityManagerHolder.toString(), e);
 		}
 		finally {
-			clearEntityManagers();
+			clearEntityManagers(entityManagers);
+		}
+	}
+
+	/**
+	 * Create a new data generator and do the injections into it
+	 *
+	 * @param manager The manager to keep track of the modifications, null for a shared data generator
+	 * @param dataGeneratorClass The data generator class
+	 * @param entityManager The entity manager of the data generator
+	 * @param injectedEntityManager The entity manager to inject into the data generator
+	 * @param lock The lock to serialize the create/update/delete calls of a data generator used by many threads, null to not serialize them
+	 * @return The data generator created
+	 * @throws DataGeneratorException When the data generator cannot be created
+	 */
+	static IDataGenerator createDataGenerator(DataGeneratorManager manager, Class<? extends IDataGenerator> dataGeneratorClass,
+		EntityManager entityManager, EntityManager injectedEntityManager, Object lock) throws DataGeneratorException {
+		try {
+			// Instantiate a new data generator proxy, inject the EJB and keep track of it.
+			IDataGenerator dataGenerator = DataGeneratorProxyFactory.forClass(dataGeneratorClass).newInstance(new GeneratorCallback(manager, entityManager, lock));
+
+			DependencyInjector.inject(dataGenerator, injectedEntityManager, true);
+
+			return dataGenerator;
+		}
+		catch (Exception ex) {
+			LOG.log(Level.SEVERE, "Injection failed during the creation of the data generator: " + dataGeneratorClass.getCanonicalName(), ex);
+			throw new DataGeneratorException("Unable to instantiate the data generator " + dataGeneratorClass.getCanonicalName(), ex);
 		}
 	}
 
 	/**
 	 * Actions to clean the data
 	 *
-	 * @param description The description to get test data
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @param dataGenerators The data generators of the scope (method or class)
 	 * @throws Throwable Any errors
 	 */
-	private void cleanup(Description description) throws DataGeneratorException {
-		DataGenerator dgAnnotation = description.getAnnotation(DataGenerator.class);
+	private void cleanup(DataGenerator dgAnnotation, Map<Class, IDataGenerator> dataGenerators) throws DataGeneratorException {
+		cleanup(dgAnnotation, dataGenerators, entityTrackersOf(dataGenerators));
+	}
 
-		if (dgAnnotation != null && dgAnnotation.executeCleanup()) {
-			try {
-				startTransaction();
+	/**
+	 * Check if the cleanup of a test method can be deferred to the end of the test class
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @return True if the cleanup can be deferred
+	 */
+	private boolean canDeferCleanup(DataGenerator dgAnnotation) {
+		return deferredCleanup && classRunning && !entityManagerHolder.isPerThread() && dgAnnotation != null && dgAnnotation.executeCleanup();
+	}
+
+	/**
+	 * Record the cleanup of a test method to run it at the end of the test class. The data generators
+	 * and the entity trackers of the test are copied as the scope is reused by the next test.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @param scope The scope of the test method
+	 */
+	private void deferCleanup(DataGenerator dgAnnotation, TestScope scope) {
+		synchronized (deferredCleanups) {
+			deferredCleanups.add(new DeferredCleanup(dgAnnotation, scope));
+		}
+	}
+
+	/**
+	 * Run the deferred cleanups. The cleanups of the data generators are run in the reverse order
+	 * of the tests and the tracked entities are deleted once merged, everything in one transaction
+	 * per entity manager.
+	 *
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	private void cleanupDeferred() throws DataGeneratorException {
+		final List<DeferredCleanup> deferred;
+		synchronized (deferredCleanups) {
+			deferred = new ArrayList<>(deferredCleanups);
+			deferredCleanups.clear();
+		}
+
+		if (deferred.isEmpty()) {
+			return;
+		}
 
-				Class<? extends IDataGenerator>[] dataGeneratorClass = dgAnnotation.value();
-				for (int i = dataGeneratorClass.length - 1; i >= 0; i--) {
-					getDataGenerator(dataGeneratorClass[i]).cleanup();
+		Collection<EntityManager> usedEntityManagers = new LinkedHashSet<>();
+		final Map<EntityManager, EntityTracker> trackers = new LinkedHashMap<>();
+
+		// The entities of a test are deleted before the entities of the previous tests
+		for (DeferredCleanup cleanup : deferred) {
+			usedEntityManagers.addAll(usedEntityManagers(cleanup.dgAnnotation));
+
+			for (Map.Entry<EntityManager, EntityTracker> e : cleanup.trackers.entrySet()) {
+				if (trackers.containsKey(e.getKey())) {
+					trackers.get(e.getKey()).merge(e.getValue());
+				}
+				else {
+					trackers.put(e.getKey(), e.getValue());
 				}
-				commitTransaction();
 			}
-			catch (Exception e) {
-				LOG.log(Level.SEVERE, "Unknown error", e);
-				rollbackTransaction();
-				throw new DataGeneratorException("An unexpected error occurred during cleanup phase.", e);
+		}
+
+		Collections.reverse(deferred);
+
+		try {
+			startTransaction(usedEntityManagers);
+
+			for (DeferredCleanup cleanup : deferred) {
+				for (List<IDataGenerator> dataGenerators : groupByEntityManager(cleanup.dgAnnotation, cleanup.dataGenerators, true).values()) {
+					for (IDataGenerator dataGenerator : dataGenerators) {
+						dataGenerator.cleanup();
+					}
+				}
 			}
-			finally {
-				clearEntityManagers();
+
+			for (EntityTracker tracker : trackers.values()) {
+				tracker.deleteTrackedEntities();
+			}
+
+			commitTransaction(usedEntityManagers);
+		}
+		catch (Exception e) {
+			LOG.log(Level.SEVERE, "Unknown error", e);
+			rollbackTransaction(usedEntityManagers);
+			throw new DataGeneratorException("An unexpected error occurred during the deferred cleanup phase.", e);
+		}
+		finally {
+			clearEntityManagers(usedEntityManagers);
+
+			for (DeferredCleanup cleanup : deferred) {
+				releaseSharedDataGenerators(cleanup.dgAnnotation, cleanup.dataGenerators);
 			}
 		}
 	}
 
 	/**
-	 * Start the transaction on all registered entity managers
+	 * Check if the cleanup of a test method can run in background
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @return True if the cleanup can be queued
 	 */
-	private void startTransaction() {
-		for (EntityManager em : entityManagerHolder.getManagers()) {
+	private boolean canCleanupAsync(DataGenerator dgAnnotation) {
+		return asyncCleanup && !entityManagerHolder.isPerThread() && dgAnnotation != null && dgAnnotation.executeCleanup();
+	}
+
+	/**
+	 * Queue the cleanup of a test method. The data generators and the entity trackers of the
+	 * test are copied as the scope is reused by the next test.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method
+	 * @param scope The scope of the test method
+	 */
+	private void cleanupAsync(final DataGenerator dgAnnotation, TestScope scope) {
+		final Map<Class, IDataGenerator> dataGenerators = new HashMap<>(scope.dataGenerators);
+		final Map<EntityManager, EntityTracker> trackers = new HashMap<>(scope.entityTrackers);
+		Collection<EntityManagerFactory> factories = entityManagerFactoriesOf(dgAnnotation);
+
+		// The worker owns the entity managers of the test, the holder creates new ones for the next tests
+		final DataGeneratorManager worker = createWorker(entityManagerHolder.handOverEntityManagers());
+
+		synchronized (asyncCleanupFactories) {
+			asyncCleanupFactories.addAll(factories);
+		}
+		CleanupQueue.submit(factories, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				try {
+					worker.cleanup(dgAnnotation, dataGenerators, trackers);
+				}
+				finally {
+					worker.closeEntityManagers();
+				}
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Report the failures of the cleanups run in background on the persistence units of this manager
+	 *
+	 * @throws DataGeneratorException When one of the cleanups failed
+	 */
+	private void checkAsyncCleanupFailures() throws DataGeneratorException {
+		if (asyncCleanup) {
+			Collection<EntityManagerFactory> factories;
+			synchronized (asyncCleanupFactories) {
+				factories = new ArrayList<>(asyncCleanupFactories);
+			}
+			CleanupQueue.checkFailures(factories);
+		}
+	}
+
+	/**
+	 * Clean the data of the test class. When the entity managers of the class data generators were
+	 * handed over to their own holder, the cleanup is done with them and they are closed afterwards.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test class
+	 * @param classEntityManagerHolder The holder of the entity managers of the class, null when they stayed in the holder
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	private void cleanupClass(DataGenerator dgAnnotation, EntityManagerHolder classEntityManagerHolder) throws DataGeneratorException {
+		if (classEntityManagerHolder == null) {
+			cleanup(dgAnnotation, classDataGenerators);
+			return;
+		}
+
+		DataGeneratorManager worker = createWorker(classEntityManagerHolder);
+		try {
+			worker.cleanup(dgAnnotation, classDataGenerators, classEntityTrackers);
+		}
+		finally {
+			worker.closeEntityManagers();
+		}
+	}
+
+	/**
+	 * Create a manager to clean data with the entity managers handed over by the holder
+	 *
+	 * @param holder The holder with the entity managers handed over
+	 * @return The manager with the same configuration
+	 */
+	private DataGeneratorManager createWorker(EntityManagerHolder holder) {
+		DataGeneratorManager worker = new DataGeneratorManager(holder);
+		worker.entityTracking = entityTracking;
+		worker.parallelPersistenceUnits = parallelPersistenceUnits;
+		return worker;
+	}
+
+	/**
+	 * Close the entity managers of the holder once the data are cleaned
+	 */
+	private void closeEntityManagers() {
+		for (EntityManager entityManager : entityManagerHolder.getManagers()) {
+			if (entityManager.isOpen()) {
+				entityManager.close();
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the entity manager factories used by the data generators of an annotation
+	 *
+	 * @param dgAnnotation The data generator annotation
+	 * @return The entity manager factories
+	 */
+	private Collection<EntityManagerFactory> entityManagerFactoriesOf(DataGenerator dgAnnotation) {
+		Set<EntityManagerFactory> factories = new LinkedHashSet<>();
+
+		for (Class<? extends IDataGenerator> dataGeneratorClass : dgAnnotation.value()) {
+			EntityManager entityManager = entityManagerHolder.retrieveEntityManagerFromDataGenerator(dataGeneratorClass);
+
+			if (entityManager != null) {
+				factories.add(entityManager.getEntityManagerFactory());
+			}
+		}
+
+		return factories;
+	}
+
+	/**
+	 * Actions to clean the data
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @param dataGenerators The data generators of the scope (method or class)
+	 * @param trackers The entity trackers of the scope
+	 * @throws DataGeneratorException Any errors
+	 */
+	private void cleanup(DataGenerator dgAnnotation, Map<Class, IDataGenerator> dataGenerators,
+		final Map<EntityManager, EntityTracker> trackers) throws DataGeneratorException {
+		if (dgAnnotation == null) {
+			return;
+		}
+
+		try {
+			if (dgAnnotation.executeCleanup()) {
+				Collection<EntityManager> usedEntityManagers = usedEntityManagers(dgAnnotation);
+
+				try {
+					startTransaction(usedEntityManagers);
+
+					final Map<EntityManager, List<IDataGenerator>> dataGeneratorsPerManager = groupByEntityManager(dgAnnotation, dataGenerators, true);
+
+					List<EntityManager> entityManagers = new ArrayList<>(dataGeneratorsPerManager.keySet());
+					for (EntityManager entityManager : trackers.keySet()) {
+						if (!entityManagers.contains(entityManager)) {
+							entityManagers.add(entityManager);
+						}
+					}
+
+					forEachEntityManager(entityManagers, new EntityManagerTask() {
+						@Override
+						public void run(EntityManager entityManager) {
+							if (dataGeneratorsPerManager.containsKey(entityManager)) {
+								for (IDataGenerator dataGenerator : dataGeneratorsPerManager.get(entityManager)) {
+									dataGenerator.cleanup();
+								}
+							}
+
+							// Delete the entities tracked for the scope
+							if (entityManager != null && trackers.containsKey(entityManager)) {
+								trackers.get(entityManager).deleteTrackedEntities();
+							}
+						}
+					});
+
+					commitTransaction(usedEntityManagers);
+				}
+				catch (Exception e) {
+					LOG.log(Level.SEVERE, "Unknown error", e);
+					rollbackTransaction(usedEntityManagers);
+					throw new DataGeneratorException("An unexpected error occurred during cleanup phase.", e);
+				}
+				finally {
+					clearEntityManagers(usedEntityManagers);
+				}
+			}
+		}
+		finally {
+			releaseSharedDataGenerators(dgAnnotation, dataGenerators);
+		}
+	}
+
+	/**
+	 * Release the shared data generators acquired for a scope. The last user of a shared
+	 * data generator triggers its cleanup.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @param dataGenerators The data generators of the scope (method or class)
+	 * @throws DataGeneratorException When the cleanup of a shared data generator fails
+	 */
+	private void releaseSharedDataGenerators(DataGenerator dgAnnotation, Map<Class, IDataGenerator> dataGenerators) throws DataGeneratorException {
+		Class<? extends IDataGenerator>[] dataGeneratorClass = dgAnnotation.value();
+		for (int i = dataGeneratorClass.length - 1; i >= 0; i--) {
+			if (SharedDataGeneratorRegistry.isShared(dataGeneratorClass[i]) && dataGenerators.remove(dataGeneratorClass[i]) != null) {
+				SharedDataGeneratorRegistry.release(dataGeneratorClass[i], entityManagerHolder.retrieveFactoryFromDataGenerator(dataGeneratorClass[i]), dgAnnotation.executeCleanup());
+			}
+		}
+	}
+
+	/**
+	 * Retrieve the entity managers used by the data generators of an annotation. The whole object
+	 * graph of a data generator receives its entity manager. The shared data generators are not
+	 * taken into account as they manage their own transactions.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @return The entity managers used in the order of the annotation
+	 */
+	private Collection<EntityManager> usedEntityManagers(DataGenerator dgAnnotation) {
+		Set<EntityManager> entityManagers = new LinkedHashSet<>();
+
+		for (Class<? extends IDataGenerator> dataGeneratorClass : dgAnnotation.value()) {
+			if (!SharedDataGeneratorRegistry.isShared(dataGeneratorClass)) {
+				entityManagers.add(entityManagerHolder.retrieveEntityManagerFromDataGenerator(dataGeneratorClass));
+			}
+		}
+
+		return entityManagers;
+	}
+
+	/**
+	 * Start the transaction on the entity managers
+	 *
+	 * @param entityManagers The entity managers
+	 */
+	private void startTransaction(Collection<EntityManager> entityManagers) {
+		for (EntityManager em : entityManagers) {
 			em.getTransaction().begin();
 		}
 	}
 
 	/**
-	 * Rollback the transaction on all registered entity managers
+	 * Rollback the transaction on the entity managers
+	 *
+	 * @param entityManagers The entity managers
+	 */
+	private void rollbackTransaction(Collection<EntityManager> entityManagers) {
+		for (EntityManager em : entityManagers) {
+			if (em.getTransaction().isActive()) {
+				em.getTransaction().rollback();
+			}
+		}
+	}
+
+	/**
+	 * Commit the transaction on the entity managers. In the parallel mode, all the entity
+	 * managers are flushed before any commit to be able to rollback all of them when one
+	 * flush fails.
+	 *
+	 * @param entityManagers The entity managers
+	 * @throws Exception When the flush or the commit fails
+	 */
+	private void commitTransaction(Collection<EntityManager> entityManagers) throws Exception {
+		if (isParallel(entityManagers)) {
+			forEachEntityManager(entityManagers, new EntityManagerTask() {
+				@Override
+				public void run(EntityManager entityManager) {
+					entityManager.flush();
+				}
+			});
+
+			forEachEntityManager(entityManagers, new EntityManagerTask() {
+				@Override
+				public void run(EntityManager entityManager) {
+					entityManager.getTransaction().commit();
+				}
+			});
+		}
+		else {
+			for (EntityManager em : entityManagers) {
+				em.getTransaction().commit();
+			}
+		}
+		resolveTrackedEntities();
+	}
+
+	/**
+	 * Group the data generators of a scope per entity manager. The shared data generators
+	 * are skipped as they are managed by the shared registry.
+	 *
+	 * @param dgAnnotation The data generator annotation of the test method or class
+	 * @param dataGenerators The data generators of the scope (method or class)
+	 * @param reverse True to keep the data generators in the reverse order of the annotation
+	 * @return The data generators per entity manager in the order of the annotation (or reversed)
+	 */
+	private Map<EntityManager, List<IDataGenerator>> groupByEntityManager(DataGenerator dgAnnotation, Map<Class, IDataGenerator> dataGenerators, boolean reverse) {
+		Map<EntityManager, List<IDataGenerator>> dataGeneratorsPerManager = new LinkedHashMap<>();
+
+		Class<? extends IDataGenerator>[] dataGeneratorClass = dgAnnotation.value();
+		for (int j = 0; j < dataGeneratorClass.length; j++) {
+			int i = reverse ? dataGeneratorClass.length - 1 - j : j;
+
+			IDataGenerator dataGenerator = dataGenerators.get(dataGeneratorClass[i]);
+			if (dataGenerator == null || SharedDataGeneratorRegistry.isShared(dataGeneratorClass[i])) {
+				continue;
+			}
+
+			// In the serial mode, all the data generators are kept in one group to respect the order of the annotation
+			EntityManager entityManager = parallelPersistenceUnits ? entityManagerHolder.retrieveEntityManagerFromDataGenerator(dataGeneratorClass[i]) : null;
+
+			List<IDataGenerator> group = dataGeneratorsPerManager.get(entityManager);
+			if (group == null) {
+				group = new ArrayList<>();
+				dataGeneratorsPerManager.put(entityManager, group);
+			}
+			group.add(dataGenerator);
+		}
+
+		return dataGeneratorsPerManager;
+	}
+
+	/**
+	 * Check if a task must be run concurrently on the entity managers
+	 *
+	 * @param entityManagers The entity managers
+	 * @return True if the parallel mode is enabled and there is more than one entity manager
+	 */
+	private boolean isParallel(Collection<EntityManager> entityManagers) {
+		return parallelPersistenceUnits && entityManagers.size() > 1;
+	}
+
+	/**
+	 * Run a task for each entity manager, concurrently in the parallel mode. All the tasks are
+	 * completed before the first failure is thrown.
+	 *
+	 * @param entityManagers The entity managers
+	 * @param task The task to run
+	 * @throws Exception The first failure
+	 */
+	private void forEachEntityManager(Collection<EntityManager> entityManagers, final EntityManagerTask task) throws Exception {
+		if (!isParallel(entityManagers)) {
+			for (EntityManager entityManager : entityManagers) {
+				task.run(entityManager);
+			}
+			return;
+		}
+
+		List<Future<Void>> futures = new ArrayList<>();
+		for (final EntityManager entityManager : entityManagers) {
+			futures.add(getPersistenceUnitExecutor().submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					task.run(entityManager);
+					return null;
+				}
+			}));
+		}
+
+		Throwable failure = null;
+		for (Future<Void> future : futures) {
+			try {
+				future.get();
+			}
+			catch (ExecutionException ee) {
+				if (failure == null) {
+					failure = ee.getCause();
+				}
+			}
+		}
+
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		}
+		else if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+	}
+
+	/**
+	 * @return The executor of the persistence unit workers, the idle daemon workers are reused by the next tests
+	 */
+	private static synchronized ExecutorService getPersistenceUnitExecutor() {
+		if (persistenceUnitExecutor == null) {
+			persistenceUnitExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "junitee-persistence-unit-worker");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return persistenceUnitExecutor;
+	}
+
+	/**
+	 * Retrieve the entity trackers of a scope
+	 *
+	 * @param dataGenerators The data generators of the scope (method or class)
+	 * @return The entity trackers of the scope
+	 */
+	private Map<EntityManager, EntityTracker> entityTrackersOf(Map<Class, IDataGenerator> dataGenerators) {
+		return dataGenerators == classDataGenerators ? classEntityTrackers : testScope.get().entityTrackers;
+	}
+
+	/**
+	 * Retrieve the entity manager to inject into the data generators of a scope. When the
+	 * entity tracking is enabled, the entity manager is wrapped by the entity tracker of the scope.
+	 * The streaming data generators always receive the real entity manager as they track their
+	 * entities by themselves.
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @param entityManager The entity manager of the data generator
+	 * @param dataGenerators The data generators of the scope (method or class)
+	 * @return The entity manager to inject
+	 */
+	private EntityManager injectedEntityManager(Class<? extends IDataGenerator> dataGeneratorClass, EntityManager entityManager,
+		Map<Class, IDataGenerator> dataGenerators) {
+		if (!entityTracking || StreamingDataGenerator.class.isAssignableFrom(dataGeneratorClass)) {
+			return entityManager;
+		}
+
+		Map<EntityManager, EntityTracker> trackers = entityTrackersOf(dataGenerators);
+
+		EntityTracker entityTracker = trackers.get(entityManager);
+		if (entityTracker == null) {
+			entityTracker = new EntityTracker(entityManager);
+			trackers.put(entityManager, entityTracker);
+		}
+
+		return entityTracker.getTrackingEntityManager();
+	}
+
+	/**
+	 * Record the identifiers of the entities persisted since the last commit
 	 */
-	private void rollbackTransaction() {
-		for (EntityManager em : entityManagerHolder.getManagers()) {
-			em.getTransaction().rollback();
+	private void resolveTrackedEntities() {
+		for (EntityTracker entityTracker : testScope.get().entityTrackers.values()) {
+			entityTracker.resolveIdentifiers();
+		}
+
+		for (EntityTracker entityTracker : classEntityTrackers.values()) {
+			entityTracker.resolveIdentifiers();
 		}
 	}
 
 	/**
-	 * Commit the transaction on all registered entity managers
+	 * Record the identifiers of the entities persisted through an entity manager since its last flush
+	 *
+	 * @param entityManager The entity manager
 	 */
-	private void commitTransaction() {
-		for (EntityManager em : entityManagerHolder.getManagers()) {
-			em.getTransaction().commit();
+	private void resolveTrackedEntities(EntityManager entityManager) {
+		EntityTracker entityTracker = testScope.get().entityTrackers.get(entityManager);
+		if (entityTracker != null) {
+			entityTracker.resolveIdentifiers();
+		}
+
+		entityTracker = classEntityTrackers.get(entityManager);
+		if (entityTracker != null) {
+			entityTracker.resolveIdentifiers();
 		}
 	}
 
 	/**
-	 * Clear all the registered entity managers
+	 * Clear the entity managers
+	 *
+	 * @param entityManagers The entity managers
 	 */
-	private void clearEntityManagers() {
-		for (EntityManager em : entityManagerHolder.getManagers()) {
+	private void clearEntityManagers(Collection<EntityManager> entityManagers) {
+		for (EntityManager em : entityManagers) {
 			em.clear();
 		}
 	}
 
+	/**
+	 * The cleanup of a test method deferred to the end of the test class
+	 */
+	private static final class DeferredCleanup {
+		private final DataGenerator dgAnnotation;
+		private final Map<Class, IDataGenerator> dataGenerators;
+		private final Map<EntityManager, EntityTracker> trackers;
+
+		private DeferredCleanup(DataGenerator dgAnnotation, TestScope scope) {
+			this.dgAnnotation = dgAnnotation;
+			this.dataGenerators = new HashMap<>(scope.dataGenerators);
+			this.trackers = new HashMap<>(scope.entityTrackers);
+		}
+	}
+
+	/**
+	 * The state of a test method execution
+	 */
+	private static final class TestScope {
+		/**
+		 * Keep track of generators to be able to retrieve a data generator directly in a test
+		 */
+		private final Map<Class, IDataGenerator> dataGenerators = new HashMap<>();
+
+		/**
+		 * The entity trackers of the test method data generators per entity manager
+		 */
+		private final Map<EntityManager, EntityTracker> entityTrackers = new HashMap<>();
+
+		/**
+		 * Determine if a test is running or not. This is required to enable/disable
+		 * the behavior of method interceptions during the test method run.
+		 */
+		private boolean testRunning = false;
+
+		/**
+		 * Determine if the data of the current test have been modified through the data generators
+		 */
+		private boolean dirty = false;
+
+		/**
+		 * The annotation of the previous test when its data are kept for the next test, null otherwise
+		 */
+		private DataGenerator retainedAnnotation;
+
+		/**
+		 * Determine if a batch is running
+		 */
+		private boolean batchRunning = false;
+
+		/**
+		 * Number of create/update/delete calls after which the entity managers are flushed and
+		 * cleared during a batch. Zero or less means never.
+		 */
+		private int batchFlushInterval = 0;
+
+		/**
+		 * Number of create/update/delete calls done during the current batch
+		 */
+		private int batchCalls = 0;
+
+		/**
+		 * The entity managers whose transaction has been started by the current batch
+		 */
+		private final Set<EntityManager> batchEntityManagers = new LinkedHashSet<>();
+	}
+
+	/**
+	 * Task to run for an entity manager
+	 */
+	private interface EntityManagerTask {
+		/**
+		 * Run the task
+		 *
+		 * @param entityManager The entity manager, null for the data generators grouped in the serial mode
+		 * @throws Exception Any error
+		 */
+		void run(EntityManager entityManager) throws Exception;
+	}
+
 	/**
 	 * Callback class to allow lazy instantiation of annotated fields
 	 */
 	private static class GeneratorCallback implements MethodInterceptor {
+		/**
+		 * The manager to keep track of the modifications done during the tests, null for a shared data generator
+		 */
+		private DataGeneratorManager manager;
+
 		/**
 		 * Entity manager to manage the transactions
 		 */
 		private EntityManager entityManager;
 
+		/**
+		 * The lock of a data generator shared by the test threads, its entity manager is not thread safe
+		 */
+		private Object lock;
+
 		/**
 		 * Constructor
 		 *
+		 * @param manager The data generator manager
 		 * @param entityManager Entity manager
+		 * @param lock The lock to serialize the calls, null to not serialize them
 		 */
-		public GeneratorCallback(EntityManager entityManager) {
+		public GeneratorCallback(DataGeneratorManager manager, EntityManager entityManager, Object lock) {
+			this.manager = manager;
 			this.entityManager = entityManager;
+			this.lock = lock;
 		}
 
 		@Override
 		public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			if (lock == null) {
+				return doIntercept(obj, method, args, proxy);
+			}
+
+			// The parallel tests must not begin and commit transactions on the same entity manager at the same time
+			synchronized (lock) {
+				return doIntercept(obj, method, args, proxy);
+			}
+		}
+
+		/**
+		 * Invoke a create/update/delete method into a transaction
+		 *
+		 * @param obj The data generator
+		 * @param method The method
+		 * @param args The arguments
+		 * @param proxy The method proxy
+		 * @return The result of the method
+		 * @throws Throwable Any error
+		 */
+		private Object doIntercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			// Keep track that the data are modified during the test or a batch. A shared data generator does not
+			// belong to a test, its modifications are always done in a transaction on its own entity manager.
+			boolean running = manager == null || manager.isRunning();
+
+			if (running && manager != null) {
+				manager.markDirty();
+			}
+
 			// Invoke create/update/delete methods encapsulated into a transaction
-			if (testRunning && method.getName().startsWith("create") || method.getName().startsWith("update") || method.getName().startsWith("delete")) {
+			if (running && (method.getName().startsWith("create") || method.getName().startsWith("update") || method.getName().startsWith("delete"))) {
+				if (manager != null) {
+					manager.joinBatch(entityManager);
+				}
+
+				// Join the transaction already active (nested calls, batch or data generation)
+				if (entityManager.getTransaction().isActive()) {
+					Object result = proxy.invokeSuper(obj, args);
+					if (manager != null) {
+						manager.batchCallDone(entityManager);
+					}
+					return result;
+				}
+
 				try {
 					entityManager.getTransaction().begin();
 					Object result = proxy.invokeSuper(obj, args);
 					entityManager.getTransaction().commit();
+					if (manager != null) {
+						manager.resolveTrackedEntities();
+					}
 					return result;
 				}
 				catch (Throwable t) {
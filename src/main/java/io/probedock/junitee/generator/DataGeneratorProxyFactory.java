@@ -0,0 +1,177 @@
+package io.probedock.junitee.generator;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.sf.cglib.proxy.Callback;
+import net.sf.cglib.proxy.CallbackFilter;
+import net.sf.cglib.proxy.Enhancer;
+import net.sf.cglib.proxy.Factory;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import net.sf.cglib.proxy.NoOp;
+
+/**
+ * The data generator proxy factory builds the proxy class of a data generator only once. The
+ * proxies are then instantiated from a prototype with a fresh transactional callback.
+ * <p>
+ * Only the create, update and delete methods are sent to the transactional callback. All the other
+ * methods are directly invoked. A data generator without such methods is not proxied at all.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+final class DataGeneratorProxyFactory {
+	/**
+	 * Index of the callback for the methods invoked directly
+	 */
+	private static final int DIRECT = 0;
+
+	/**
+	 * Index of the callback for the methods invoked into a transaction
+	 */
+	private static final int TRANSACTIONAL = 1;
+
+	/**
+	 * Prefixes of the methods invoked into a transaction
+	 */
+	private static final String[] TRANSACTIONAL_PREFIXES = new String[] { "create", "update", "delete" };
+
+	/**
+	 * Filter to dispatch the methods to the right callback
+	 */
+	private static final CallbackFilter FILTER = new CallbackFilter() {
+		@Override
+		public int accept(Method method) {
+			return isTransactional(method) ? TRANSACTIONAL : DIRECT;
+		}
+	};
+
+	/**
+	 * Callback of the prototypes which are never used as data generators
+	 */
+	private static final MethodInterceptor PROTOTYPE_CALLBACK = new MethodInterceptor() {
+		@Override
+		public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			return proxy.invokeSuper(obj, args);
+		}
+	};
+
+	/**
+	 * The factories per data generator class
+	 */
+	private static final ConcurrentMap<Class<?>, DataGeneratorProxyFactory> FACTORIES = new ConcurrentHashMap<>();
+
+	/**
+	 * The data generator class
+	 */
+	private final Class<? extends IDataGenerator> dataGeneratorClass;
+
+	/**
+	 * Prototype of the proxy to create new proxies, null if the data generator is not proxied
+	 */
+	private final Factory prototype;
+
+	/**
+	 * Constructor
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 */
+	private DataGeneratorProxyFactory(Class<? extends IDataGenerator> dataGeneratorClass) {
+		this.dataGeneratorClass = dataGeneratorClass;
+
+		if (hasTransactionalMethods(dataGeneratorClass)) {
+			Enhancer enhancer = new Enhancer();
+			enhancer.setSuperclass(dataGeneratorClass);
+			enhancer.setInterfaces(new Class[] {IDataGenerator.class});
+			enhancer.setCallbackFilter(FILTER);
+			enhancer.setCallbacks(new Callback[] {NoOp.INSTANCE, PROTOTYPE_CALLBACK});
+			prototype = (Factory) enhancer.create();
+		}
+		else {
+			prototype = null;
+		}
+	}
+
+	/**
+	 * Retrieve the factory of a data generator class. The factory is built the first time
+	 * the class is requested.
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @return The factory
+	 */
+	static DataGeneratorProxyFactory forClass(Class<? extends IDataGenerator> dataGeneratorClass) {
+		DataGeneratorProxyFactory factory = FACTORIES.get(dataGeneratorClass);
+
+		if (factory == null) {
+			DataGeneratorProxyFactory newFactory = new DataGeneratorProxyFactory(dataGeneratorClass);
+			factory = FACTORIES.putIfAbsent(dataGeneratorClass, newFactory);
+			if (factory == null) {
+				factory = newFactory;
+			}
+		}
+
+		return factory;
+	}
+
+	/**
+	 * @return True if the data generator class is proxied
+	 */
+	boolean isProxied() {
+		return prototype != null;
+	}
+
+	/**
+	 * Create a new data generator
+	 *
+	 * @param transactionalCallback The callback for the create, update and delete methods
+	 * @return The new data generator
+	 * @throws ReflectiveOperationException When the data generator cannot be instantiated
+	 */
+	IDataGenerator newInstance(MethodInterceptor transactionalCallback) throws ReflectiveOperationException {
+		if (prototype != null) {
+			return (IDataGenerator) prototype.newInstance(new Callback[] {NoOp.INSTANCE, transactionalCallback});
+		}
+		else {
+			return dataGeneratorClass.newInstance();
+		}
+	}
+
+	/**
+	 * Check if a method must be invoked into a transaction
+	 *
+	 * @param method The method to check
+	 * @return True if the method is a create, update or delete method
+	 */
+	private static boolean isTransactional(Method method) {
+		for (String prefix : TRANSACTIONAL_PREFIXES) {
+			if (method.getName().startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a data generator class has methods that can be intercepted to be invoked into a transaction
+	 *
+	 * @param cl The class to check
+	 * @return True if at least one method must be invoked into a transaction
+	 */
+	private static boolean hasTransactionalMethods(Class<?> cl) {
+		Class<?> current = cl;
+
+		while (current != null && current != Object.class) {
+			for (Method m : current.getDeclaredMethods()) {
+				int modifiers = m.getModifiers();
+				if (!Modifier.isPrivate(modifiers) && !Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers) && isTransactional(m)) {
+					return true;
+				}
+			}
+
+			current = current.getSuperclass();
+		}
+
+		return false;
+	}
+}
@@ -1,5 +1,9 @@
 package io.probedock.junitee.generator;
 
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
 /**
  * The data generator runner is a data structure to help to 
  * fix the order of data generators to run into a composite 
@@ -12,16 +16,11 @@ class DataGeneratorRunner {
 	 * The data generator to run by the runner
 	 */
 	private IDataGenerator dataGenerator;
-	
-	/**
-	 * Next runner should be null when the end of the chain is reached
-	 */
-	private DataGeneratorRunner next;
-	
+
 	/**
-	 * Previous runner should be null when start of the chain is reached
+	 * The runners that must be run before this one in a data generator graph
 	 */
-	private DataGeneratorRunner previous;
+	private Set<DataGeneratorRunner> dependencies = new LinkedHashSet<>();
 
 	/**
 	 * Constructor
@@ -31,59 +30,27 @@ class DataGeneratorRunner {
 	public DataGeneratorRunner(IDataGenerator dataGenerator) {
 		this.dataGenerator = dataGenerator;
 	}
-
-	/**
-	 * Add a new data generator to the runner
-	 * 
-	 * @param nextDataGenerator The next data generator to run
-	 * @return The data generator runner created for the next data generator
-	 */
-	public DataGeneratorRunner setNext(IDataGenerator nextDataGenerator) {
-		next = new DataGeneratorRunner(nextDataGenerator);
-		next.previous = this;
-		return next;
-	}
 	
 	/**
-	 * @return The next data generator runner
+	 * Add a runner that must be run before this one
+	 * 
+	 * @param dependency The runner to run before
 	 */
-	DataGeneratorRunner getNext() {
-		return next;
+	void dependsOn(DataGeneratorRunner dependency) {
+		dependencies.add(dependency);
 	}
 
 	/**
-	 * @return The previous data generator runner
+	 * @return The runners that must be run before this one
 	 */
-	DataGeneratorRunner getPrevious() {
-		return previous;
+	Set<DataGeneratorRunner> getDependencies() {
+		return Collections.unmodifiableSet(dependencies);
 	}
-	
+
 	/**
 	 * @return The data generator to be run
 	 */
 	IDataGenerator getDataGenerator() {
 		return dataGenerator;
 	}
-	
-	/**
-	 * Run the creation of the data
-	 */
-	public void generate() {
-		dataGenerator.generate();
-
-		if (next != null) {
-			next.generate();
-		}
-	}
-	
-	/**
-	 * Run the cleanup of the data
-	 */
-	public void cleanup() {
-		dataGenerator.cleanup();
-		
-		if (previous != null) {
-			previous.cleanup();
-		}
-	}
 }
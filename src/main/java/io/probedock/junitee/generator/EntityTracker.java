@@ -0,0 +1,338 @@
+package io.probedock.junitee.generator;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.metamodel.EntityType;
+
+/**
+ * The entity tracker wraps an entity manager to keep track of the entities persisted through it. The
+ * type and the identifier of each entity are recorded to be able to delete all the rows with few bulk
+ * delete statements in place of removing the entities one by one.
+ * <p>
+ * The numeric identifiers are kept in a {@link GeneratedIdRegistry}, the other identifiers (strings,
+ * UUIDs, ...) are kept as they are. The consecutive persists of the same entity type form a run and
+ * the runs are deleted in the reverse order of their insertion, so an entity is always deleted before
+ * the entities persisted before it. Only the entities given to {@link EntityManager#persist(Object)}
+ * are tracked. The entities persisted by cascade and the entities with a composite identifier are
+ * not tracked.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+class EntityTracker implements InvocationHandler {
+	/**
+	 * Maximum number of identifiers in one delete statement
+	 */
+	static final int DELETE_CHUNK_SIZE = 500;
+
+	/**
+	 * The real entity manager
+	 */
+	private final EntityManager entityManager;
+
+	/**
+	 * The tracking entity manager to inject into the data generators
+	 */
+	private final EntityManager trackingEntityManager;
+
+	/**
+	 * The entities persisted for which the identifier is not yet known
+	 */
+	private final List<Object> pendingEntities = new ArrayList<>();
+
+	/**
+	 * The numeric identifiers of the entities per entity class in insertion order
+	 */
+	private final GeneratedIdRegistry registry = new GeneratedIdRegistry();
+
+	/**
+	 * The metadata of the entity types tracked
+	 */
+	private final Map<Class<?>, TrackedType> trackedTypes = new HashMap<>();
+
+	/**
+	 * The runs of consecutive entities of the same type in insertion order
+	 */
+	private final List<Run> runs = new ArrayList<>();
+
+	/**
+	 * Constructor
+	 *
+	 * @param entityManager The entity manager to track
+	 */
+	EntityTracker(EntityManager entityManager) {
+		this.entityManager = entityManager;
+		this.trackingEntityManager = (EntityManager) Proxy.newProxyInstance(
+			EntityTracker.class.getClassLoader(), new Class[] {EntityManager.class}, this);
+	}
+
+	/**
+	 * @return The entity manager that keeps track of the persisted entities
+	 */
+	EntityManager getTrackingEntityManager() {
+		return trackingEntityManager;
+	}
+
+	/**
+	 * @return The registry of the numeric identifiers recorded per entity class
+	 */
+	GeneratedIdRegistry getRegistry() {
+		return registry;
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object result;
+		try {
+			result = method.invoke(entityManager, args);
+		}
+		catch (InvocationTargetException ite) {
+			throw ite.getCause();
+		}
+
+		if ("persist".equals(method.getName()) && args != null && args.length == 1) {
+			synchronized (this) {
+				pendingEntities.add(args[0]);
+			}
+		}
+
+		// The identifiers are known after a flush and the entities discarded by a clear are never written
+		else if ("flush".equals(method.getName()) || "clear".equals(method.getName())) {
+			resolveIdentifiers();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Record the identifiers of the entities persisted since the last call and release the
+	 * entities. This must be done once the identifiers are generated, after a flush or a commit
+	 * by example. The flush and the clear of the tracking entity manager do it by themselves.
+	 */
+	synchronized void resolveIdentifiers() {
+		for (Object entity : pendingEntities) {
+			EntityType<?> entityType = entityManager.getMetamodel().entity(entity.getClass());
+
+			if (!entityType.hasSingleIdAttribute()) {
+				continue;
+			}
+
+			Object identifier = entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity);
+
+			if (identifier != null) {
+				TrackedType trackedType = trackedTypes.get(entity.getClass());
+
+				if (trackedType == null) {
+					Class<?> idType = entityType.getIdType().getJavaType();
+					trackedType = new TrackedType(entityType.getName(), entityType.getId(idType).getName(), idType);
+					trackedTypes.put(entity.getClass(), trackedType);
+				}
+
+				lastRun(entity.getClass(), trackedType).add(identifier);
+			}
+		}
+
+		pendingEntities.clear();
+	}
+
+	/**
+	 * Retrieve the run to which the next identifier of an entity type belongs. A new run
+	 * is started when the last run is of another entity type.
+	 *
+	 * @param entityClass The entity class
+	 * @param trackedType The metadata of the entity type
+	 * @return The run
+	 */
+	private Run lastRun(Class<?> entityClass, TrackedType trackedType) {
+		Run run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+
+		if (run == null || run.entityClass != entityClass) {
+			run = new Run(entityClass, trackedType, registry.size(entityClass));
+			runs.add(run);
+		}
+
+		return run;
+	}
+
+	/**
+	 * @return The number of entities for which the identifier is recorded
+	 */
+	synchronized int getTrackedCount() {
+		int count = 0;
+		for (Run run : runs) {
+			count += run.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The numeric identifiers recorded in insertion order
+	 * @throws UnsupportedOperationException When some identifiers are not numeric
+	 */
+	synchronized long[] getTrackedIdentifiers() {
+		long[] identifiers = new long[getTrackedCount()];
+		int copied = 0;
+		for (Run run : runs) {
+			if (!run.trackedType.isNumeric()) {
+				throw new UnsupportedOperationException("The identifiers of the entity " + run.trackedType.entityName + " are not numeric.");
+			}
+
+			for (int i = run.start; i < run.start + run.count; i++) {
+				identifiers[copied++] = registry.get(run.entityClass, i);
+			}
+		}
+		return identifiers;
+	}
+
+	/**
+	 * Take over the entities tracked by another tracker persisted after the entities of this tracker. The
+	 * runs of the other tracker are appended to the runs of this tracker and two adjacent runs of the same
+	 * entity type are merged to delete them with the same statements.
+	 *
+	 * @param other The tracker to merge, its entities are no longer tracked by it
+	 */
+	synchronized void merge(EntityTracker other) {
+		resolveIdentifiers();
+
+		synchronized (other) {
+			other.resolveIdentifiers();
+
+			for (Run otherRun : other.runs) {
+				TrackedType trackedType = trackedTypes.get(otherRun.entityClass);
+
+				if (trackedType == null) {
+					trackedType = otherRun.trackedType;
+					trackedTypes.put(otherRun.entityClass, trackedType);
+				}
+
+				Run run = lastRun(otherRun.entityClass, trackedType);
+
+				if (trackedType.isNumeric()) {
+					for (int i = otherRun.start; i < otherRun.start + otherRun.count; i++) {
+						run.add(other.registry.get(otherRun.entityClass, i));
+					}
+				}
+				else {
+					run.otherIdentifiers.addAll(otherRun.otherIdentifiers);
+				}
+			}
+
+			other.trackedTypes.clear();
+			other.runs.clear();
+			other.registry.clear();
+		}
+	}
+
+	/**
+	 * Delete all the tracked entities in the reverse order of their insertion. The deletions are done
+	 * with bulk delete statements per run of entities of the same type. This must be run into a transaction.
+	 */
+	synchronized void deleteTrackedEntities() {
+		resolveIdentifiers();
+
+		for (int r = runs.size() - 1; r >= 0; r--) {
+			Run run = runs.get(r);
+			TrackedType trackedType = run.trackedType;
+
+			String query = "DELETE FROM " + trackedType.entityName + " e WHERE e." + trackedType.idAttributeName + " IN :ids";
+
+			if (trackedType.isNumeric()) {
+				for (List<Long> chunk : registry.chunks(run.entityClass, run.start, run.start + run.count, DELETE_CHUNK_SIZE)) {
+					entityManager.createQuery(query).setParameter("ids", trackedType.box(chunk)).executeUpdate();
+				}
+			}
+			else {
+				for (int start = 0; start < run.otherIdentifiers.size(); start += DELETE_CHUNK_SIZE) {
+					int end = Math.min(run.otherIdentifiers.size(), start + DELETE_CHUNK_SIZE);
+					entityManager.createQuery(query).setParameter("ids", new ArrayList<>(run.otherIdentifiers.subList(start, end))).executeUpdate();
+				}
+			}
+		}
+
+		trackedTypes.clear();
+		runs.clear();
+		registry.clear();
+	}
+
+	/**
+	 * Consecutive entities of the same type. The numeric identifiers are kept in the registry
+	 * from the start index, the other identifiers are kept by the run.
+	 */
+	private final class Run {
+		private final Class<?> entityClass;
+		private final TrackedType trackedType;
+		private final int start;
+		private int count;
+		private final List<Object> otherIdentifiers = new ArrayList<>();
+
+		private Run(Class<?> entityClass, TrackedType trackedType, int start) {
+			this.entityClass = entityClass;
+			this.trackedType = trackedType;
+			this.start = start;
+		}
+
+		private void add(Object identifier) {
+			if (trackedType.isNumeric()) {
+				registry.register(entityClass, ((Number) identifier).longValue());
+				count++;
+			}
+			else {
+				otherIdentifiers.add(identifier);
+			}
+		}
+
+		private int size() {
+			return trackedType.isNumeric() ? count : otherIdentifiers.size();
+		}
+	}
+
+	/**
+	 * Keep the metadata of a tracked entity type
+	 */
+	private static class TrackedType {
+		private final String entityName;
+		private final String idAttributeName;
+		private final Class<?> idType;
+
+		private TrackedType(String entityName, String idAttributeName, Class<?> idType) {
+			this.entityName = entityName;
+			this.idAttributeName = idAttributeName;
+			this.idType = idType;
+		}
+
+		private boolean isNumeric() {
+			return idType == Long.class || idType == long.class || idType == Integer.class || idType == int.class
+				|| idType == Short.class || idType == short.class;
+		}
+
+		/**
+		 * Box the identifiers with the type of the identifier attribute for the query parameter
+		 *
+		 * @param identifiers The identifiers
+		 * @return The boxed identifiers
+		 */
+		private List<?> box(List<Long> identifiers) {
+			if (idType == Integer.class || idType == int.class) {
+				List<Integer> boxed = new ArrayList<>(identifiers.size());
+				for (Long identifier : identifiers) {
+					boxed.add(identifier.intValue());
+				}
+				return boxed;
+			}
+			else if (idType == Short.class || idType == short.class) {
+				List<Short> boxed = new ArrayList<>(identifiers.size());
+				for (Long identifier : identifiers) {
+					boxed.add(identifier.shortValue());
+				}
+				return boxed;
+			}
+			return identifiers;
+		}
+	}
+}
@@ -0,0 +1,286 @@
+package io.probedock.junitee.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The generated identifier registry keeps the identifiers of the generated data per
+ * entity type without keeping any reference to the entities themselves.
+ *
+ * The identifiers are stored in fixed size segments of primitive longs in insertion order.
+ * They can be iterated by index, exported by chunks to build bulk delete statements and
+ * checked for membership.
+ *
+ * A data generator can keep a registry to let the tests retrieve the generated data
+ * and to cleanup them without keeping the entity graphs on the heap. The entity tracking
+ * of the data generator manager and the streaming data generators keep the numeric
+ * identifiers of the persisted entities in a registry.
+ *
+ * A registry is not thread safe.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class GeneratedIdRegistry {
+	/**
+	 * Number of identifiers in one segment, must be a power of two
+	 */
+	static final int SEGMENT_SIZE = 4096;
+
+	/**
+	 * The identifiers per entity type in registration order
+	 */
+	private final Map<Class<?>, LongIds> identifiers = new LinkedHashMap<>();
+
+	/**
+	 * Register the identifier of a generated entity
+	 *
+	 * @param entityType The entity type
+	 * @param id The identifier
+	 * @return This
+	 */
+	public GeneratedIdRegistry register(Class<?> entityType, long id) {
+		LongIds ids = identifiers.get(entityType);
+
+		if (ids == null) {
+			ids = new LongIds();
+			identifiers.put(entityType, ids);
+		}
+
+		ids.add(id);
+		return this;
+	}
+
+	/**
+	 * Register the identifiers of another registry after the identifiers already registered
+	 *
+	 * @param other The registry to copy
+	 * @return This
+	 */
+	public GeneratedIdRegistry registerAll(GeneratedIdRegistry other) {
+		for (Map.Entry<Class<?>, LongIds> e : other.identifiers.entrySet()) {
+			LongIds otherIds = e.getValue();
+			for (int i = 0; i < otherIds.size; i++) {
+				register(e.getKey(), otherIds.get(i));
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * @return The entity types with at least one identifier registered in registration order
+	 */
+	public Set<Class<?>> getEntityTypes() {
+		return Collections.unmodifiableSet(identifiers.keySet());
+	}
+
+	/**
+	 * @param entityType The entity type
+	 * @return The number of identifiers registered for the entity type
+	 */
+	public int size(Class<?> entityType) {
+		LongIds ids = identifiers.get(entityType);
+		return ids != null ? ids.size : 0;
+	}
+
+	/**
+	 * Retrieve an identifier by its registration index
+	 *
+	 * @param entityType The entity type
+	 * @param index The index of the identifier
+	 * @return The identifier
+	 * @exception IndexOutOfBoundsException When there is no identifier at the index
+	 */
+	public long get(Class<?> entityType, int index) {
+		LongIds ids = identifiers.get(entityType);
+
+		if (ids == null || index < 0 || index >= ids.size) {
+			throw new IndexOutOfBoundsException("There is no identifier at index " + index + " for " + entityType.getCanonicalName());
+		}
+
+		return ids.get(index);
+	}
+
+	/**
+	 * Check if an identifier is registered for an entity type
+	 *
+	 * @param entityType The entity type
+	 * @param id The identifier
+	 * @return True if the identifier is registered
+	 */
+	public boolean contains(Class<?> entityType, long id) {
+		LongIds ids = identifiers.get(entityType);
+		return ids != null && ids.contains(id);
+	}
+
+	/**
+	 * @param entityType The entity type
+	 * @return A copy of the identifiers of the entity type in registration order
+	 */
+	public long[] toArray(Class<?> entityType) {
+		LongIds ids = identifiers.get(entityType);
+		return ids != null ? ids.toArray() : new long[0];
+	}
+
+	/**
+	 * Export the identifiers of an entity type by chunks. Each chunk is a new list that can be
+	 * directly used as the parameter of a bulk statement like {@code DELETE FROM User u WHERE u.id IN :ids}.
+	 * The chunks are built lazily during the iteration.
+	 *
+	 * @param entityType The entity type
+	 * @param chunkSize The maximum number of identifiers by chunk
+	 * @return The chunks of identifiers in registration order
+	 */
+	public Iterable<List<Long>> chunks(Class<?> entityType, int chunkSize) {
+		return chunks(entityType, 0, Integer.MAX_VALUE, chunkSize);
+	}
+
+	/**
+	 * Export a range of the identifiers of an entity type by chunks. The range is given by
+	 * registration indexes and is bounded by the number of identifiers registered.
+	 *
+	 * @param entityType The entity type
+	 * @param from The index of the first identifier, inclusive
+	 * @param to The index of the last identifier, exclusive
+	 * @param chunkSize The maximum number of identifiers by chunk
+	 * @return The chunks of identifiers of the range in registration order
+	 */
+	public Iterable<List<Long>> chunks(Class<?> entityType, final int from, final int to, final int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("The chunk size must be greater than zero.");
+		}
+
+		if (from < 0 || to < from) {
+			throw new IllegalArgumentException("The range [" + from + ", " + to + "[ is not valid.");
+		}
+
+		final LongIds ids = identifiers.get(entityType);
+
+		return new Iterable<List<Long>>() {
+			@Override
+			public Iterator<List<Long>> iterator() {
+				return new Iterator<List<Long>>() {
+					private int index = from;
+
+					@Override
+					public boolean hasNext() {
+						return ids != null && index < Math.min(ids.size, to);
+					}
+
+					@Override
+					public List<Long> next() {
+						if (!hasNext()) {
+							throw new NoSuchElementException();
+						}
+
+						int end = Math.min(Math.min(ids.size, to), index + chunkSize);
+						List<Long> chunk = new ArrayList<>(end - index);
+						for (; index < end; index++) {
+							chunk.add(ids.get(index));
+						}
+						return chunk;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Forget the identifiers of an entity type
+	 *
+	 * @param entityType The entity type
+	 */
+	public void clear(Class<?> entityType) {
+		identifiers.remove(entityType);
+	}
+
+	/**
+	 * Forget all the identifiers
+	 */
+	public void clear() {
+		identifiers.clear();
+	}
+
+	/**
+	 * Growable list of primitive longs stored in fixed size segments. The membership checks
+	 * use a binary search when the identifiers are registered in ascending order (the common
+	 * case with sequences) and a sorted copy built on demand otherwise.
+	 */
+	private static final class LongIds {
+		private final List<long[]> segments = new ArrayList<>();
+		private int size = 0;
+		private boolean ascending = true;
+		private long[] sorted;
+
+		private void add(long id) {
+			if (size == segments.size() * SEGMENT_SIZE) {
+				segments.add(new long[SEGMENT_SIZE]);
+			}
+
+			if (size > 0 && id <= get(size - 1)) {
+				ascending = false;
+			}
+
+			segments.get(size / SEGMENT_SIZE)[size % SEGMENT_SIZE] = id;
+			size++;
+			sorted = null;
+		}
+
+		private long get(int index) {
+			return segments.get(index / SEGMENT_SIZE)[index % SEGMENT_SIZE];
+		}
+
+		private boolean contains(long id) {
+			if (!ascending) {
+				if (sorted == null) {
+					sorted = toArray();
+					Arrays.sort(sorted);
+				}
+				return Arrays.binarySearch(sorted, id) >= 0;
+			}
+
+			int low = 0;
+			int high = size - 1;
+
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				long value = get(middle);
+
+				if (value < id) {
+					low = middle + 1;
+				}
+				else if (value > id) {
+					high = middle - 1;
+				}
+				else {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private long[] toArray() {
+			long[] result = new long[size];
+
+			for (int i = 0, copied = 0; copied < size; i++) {
+				int length = Math.min(SEGMENT_SIZE, size - copied);
+				System.arraycopy(segments.get(i), 0, result, copied, length);
+				copied += length;
+			}
+
+			return result;
+		}
+	}
+}
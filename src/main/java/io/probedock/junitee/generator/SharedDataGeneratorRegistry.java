@@ -0,0 +1,354 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.junitee.annotations.SharedDataGenerator;
+import io.probedock.junitee.utils.ShutdownSequence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * The shared data generator registry keeps the shared data generators for the whole JVM. The
+ * data generators are identified by their class and the entity manager factory they use. Each
+ * data generator is generated once and the users are counted. By default, the data are kept
+ * until the JVM shuts down, otherwise they are cleaned when the last user releases them.
+ *
+ * A shared data generator does not belong to a test. It has its own entity manager created from
+ * the factory and closed by the registry once the data are cleaned. As the entity manager is used
+ * by all the tests, even when they run in parallel, the create, update and delete calls and the
+ * cleanup of a shared data generator are serialized on its entry.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+final class SharedDataGeneratorRegistry {
+	private static final Logger LOG = Logger.getLogger(SharedDataGeneratorRegistry.class.getCanonicalName());
+
+	/**
+	 * The shared data generators
+	 */
+	private static final Map<List<Object>, SharedEntry> ENTRIES = new HashMap<>();
+
+	/**
+	 * Flag to register the shutdown task only once
+	 */
+	private static boolean shutdownTaskRegistered = false;
+
+	private SharedDataGeneratorRegistry() {}
+
+	/**
+	 * Check if a data generator must be shared
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @return True if the data generator is shared
+	 */
+	static boolean isShared(Class<? extends IDataGenerator> dataGeneratorClass) {
+		return dataGeneratorClass.isAnnotationPresent(SharedDataGenerator.class);
+	}
+
+	/**
+	 * Acquire a shared data generator. The data generator is created and generated
+	 * the first time it is acquired. The registry lock is only held to find or insert the
+	 * entry, the generation is done under the lock of the entry, the other threads acquiring
+	 * the same data generator wait for it.
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @param factory The entity manager factory used by the data generator
+	 * @return The shared data generator
+	 * @throws DataGeneratorException When the data generator cannot be created or generated
+	 */
+	static IDataGenerator acquire(Class<? extends IDataGenerator> dataGeneratorClass, EntityManagerFactory factory) throws DataGeneratorException {
+		List<Object> key = key(dataGeneratorClass, factory);
+		SharedEntry entry;
+
+		synchronized (SharedDataGeneratorRegistry.class) {
+			entry = ENTRIES.get(key);
+
+			// A released entry is still registered until its data are cleaned, the next one waits for it
+			if (entry == null || entry.released) {
+				entry = new SharedEntry(entry, dataGeneratorClass.getAnnotation(SharedDataGenerator.class).keepUntilShutdown());
+				ENTRIES.put(key, entry);
+				registerShutdownTask();
+			}
+
+			entry.references++;
+		}
+
+		synchronized (entry.lock) {
+			if (entry.failure == null && entry.dataGenerator == null) {
+				try {
+					generate(entry, dataGeneratorClass, factory);
+				}
+				catch (DataGeneratorException dge) {
+					entry.failure = dge;
+				}
+			}
+
+			if (entry.failure != null) {
+				forget(key, entry);
+				throw entry.failure;
+			}
+		}
+
+		return entry.dataGenerator;
+	}
+
+	/**
+	 * Create and generate the data generator of an entry, the lock of the entry is held
+	 *
+	 * @param entry The shared data generator entry
+	 * @param dataGeneratorClass The data generator class
+	 * @param factory The entity manager factory used by the data generator
+	 * @throws DataGeneratorException When the data generator cannot be created or generated
+	 */
+	private static void generate(SharedEntry entry, Class<? extends IDataGenerator> dataGeneratorClass, EntityManagerFactory factory) throws DataGeneratorException {
+		if (entry.previous != null) {
+			entry.previous.awaitCleaned();
+			entry.previous = null;
+		}
+
+		EntityManager entityManager = factory.createEntityManager();
+		IDataGenerator dataGenerator;
+
+		try {
+			dataGenerator = DataGeneratorManager.createDataGenerator(null, dataGeneratorClass, entityManager, entityManager, entry.lock);
+		}
+		catch (DataGeneratorException dge) {
+			close(entityManager);
+			throw dge;
+		}
+
+		try {
+			entityManager.getTransaction().begin();
+			dataGenerator.generate();
+			entityManager.getTransaction().commit();
+		}
+		catch (Exception e) {
+			LOG.log(Level.SEVERE, "Unknown error", e);
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			close(entityManager);
+			throw new DataGeneratorException("An unexpected error occurred during the generation of the shared data generator "
+				+ dataGeneratorClass.getCanonicalName(), e);
+		}
+
+		entityManager.clear();
+
+		entry.entityManager = entityManager;
+		entry.dataGenerator = dataGenerator;
+	}
+
+	/**
+	 * Release a shared data generator. The data are cleaned when there is no more user
+	 * except if the data must be kept until the JVM shutdown. The cleanup is done under
+	 * the lock of the entry, outside of the registry lock.
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @param factory The entity manager factory used by the data generator
+	 * @param executeCleanup Define if the cleanup must be run when there is no more user
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	static void release(Class<? extends IDataGenerator> dataGeneratorClass, EntityManagerFactory factory, boolean executeCleanup) throws DataGeneratorException {
+		List<Object> key = key(dataGeneratorClass, factory);
+		SharedEntry entry;
+
+		synchronized (SharedDataGeneratorRegistry.class) {
+			entry = ENTRIES.get(key);
+
+			if (entry == null || entry.released) {
+				return;
+			}
+
+			entry.references--;
+
+			if (entry.references > 0 || entry.keepUntilShutdown) {
+				return;
+			}
+
+			entry.released = true;
+		}
+
+		try {
+			retire(entry, executeCleanup);
+		}
+		finally {
+			forget(key, entry);
+		}
+	}
+
+	/**
+	 * Cleanup all the shared data generators still registered
+	 */
+	static void releaseAll() {
+		List<SharedEntry> entries;
+
+		synchronized (SharedDataGeneratorRegistry.class) {
+			entries = new ArrayList<>(ENTRIES.values());
+			ENTRIES.clear();
+
+			for (SharedEntry entry : entries) {
+				entry.released = true;
+			}
+		}
+
+		for (SharedEntry entry : entries) {
+			try {
+				retire(entry, true);
+			}
+			catch (DataGeneratorException dge) {
+				LOG.log(Level.SEVERE, "Unable to cleanup the shared data generator " + entry.dataGenerator.getClass().getCanonicalName(), dge);
+			}
+		}
+	}
+
+	/**
+	 * Remove an entry from the registry if it is still the registered one
+	 *
+	 * @param key The key of the entry
+	 * @param entry The entry
+	 */
+	private static synchronized void forget(List<Object> key, SharedEntry entry) {
+		if (ENTRIES.get(key) == entry) {
+			ENTRIES.remove(key);
+		}
+	}
+
+	/**
+	 * Cleanup the data of a shared data generator if required and close its entity manager. The
+	 * entries waiting for this one are notified once it is done.
+	 *
+	 * @param entry The shared data generator entry
+	 * @param executeCleanup Define if the cleanup must be run
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	private static void retire(SharedEntry entry, boolean executeCleanup) throws DataGeneratorException {
+		synchronized (entry.lock) {
+			try {
+				if (executeCleanup && !entry.cleaned && entry.dataGenerator != null) {
+					cleanup(entry);
+				}
+			}
+			finally {
+				if (entry.entityManager != null) {
+					close(entry.entityManager);
+				}
+				entry.cleaned = true;
+				entry.lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Cleanup the data of a shared data generator into a transaction, the lock of the entry is held
+	 *
+	 * @param entry The shared data generator entry
+	 * @throws DataGeneratorException When the cleanup fails
+	 */
+	private static void cleanup(SharedEntry entry) throws DataGeneratorException {
+		EntityManager entityManager = entry.entityManager;
+
+		try {
+			entityManager.getTransaction().begin();
+			entry.dataGenerator.cleanup();
+			entityManager.getTransaction().commit();
+		}
+		catch (Exception e) {
+			LOG.log(Level.SEVERE, "Unknown error", e);
+			if (entityManager.getTransaction().isActive()) {
+				entityManager.getTransaction().rollback();
+			}
+			throw new DataGeneratorException("An unexpected error occurred during cleanup phase of a shared data generator.", e);
+		}
+		finally {
+			entityManager.clear();
+		}
+	}
+
+	/**
+	 * Close the entity manager owned by a shared data generator
+	 *
+	 * @param entityManager The entity manager to close
+	 */
+	private static void close(EntityManager entityManager) {
+		try {
+			if (entityManager.isOpen()) {
+				entityManager.close();
+			}
+		}
+		catch (RuntimeException re) {
+			LOG.log(Level.WARNING, "Unable to close the entity manager of a shared data generator", re);
+		}
+	}
+
+	/**
+	 * Register the cleanup of the shared data generators in the shutdown sequence, after the
+	 * pending cleanups and before the closing of the entity manager factories
+	 */
+	private static void registerShutdownTask() {
+		if (!shutdownTaskRegistered) {
+			ShutdownSequence.register(ShutdownSequence.Phase.RELEASE_SHARED_DATA, new Runnable() {
+				@Override
+				public void run() {
+					releaseAll();
+				}
+			});
+			shutdownTaskRegistered = true;
+		}
+	}
+
+	/**
+	 * Build the key of a shared data generator
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @param factory The entity manager factory
+	 * @return The key
+	 */
+	private static List<Object> key(Class<? extends IDataGenerator> dataGeneratorClass, EntityManagerFactory factory) {
+		return Arrays.<Object>asList(dataGeneratorClass, factory);
+	}
+
+	/**
+	 * Keep a shared data generator and its users count. The data generator and its entity manager
+	 * are set under the lock of the entry, which also serializes the calls and the cleanup.
+	 */
+	private static final class SharedEntry {
+		private final Object lock = new Object();
+		private SharedEntry previous;
+		private final boolean keepUntilShutdown;
+		private IDataGenerator dataGenerator;
+		private EntityManager entityManager;
+		private DataGeneratorException failure;
+		private int references = 0;
+		private boolean released = false;
+		private boolean cleaned = false;
+
+		private SharedEntry(SharedEntry previous, boolean keepUntilShutdown) {
+			this.previous = previous;
+			this.keepUntilShutdown = keepUntilShutdown;
+		}
+
+		/**
+		 * Wait until the data of this entry are cleaned
+		 *
+		 * @throws DataGeneratorException When interrupted while waiting
+		 */
+		private void awaitCleaned() throws DataGeneratorException {
+			synchronized (lock) {
+				while (!cleaned) {
+					try {
+						lock.wait();
+					}
+					catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						throw new DataGeneratorException("Interrupted while waiting for the cleanup of a shared data generator.", ie);
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+package io.probedock.junitee.generator;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+/**
+ * Use a streaming data generator to generate a high volume of entities with a bounded
+ * memory footprint.
+ *
+ * The entities are pulled one by one from the iterator returned by {@link #entities()}
+ * and persisted in chunks. The entity manager is flushed after each chunk and the entities
+ * of the chunk are detached, so only the numeric identifiers of the generated entities are
+ * kept in memory. The persistence context is not cleared, the entities managed by the other
+ * data generators of the same entity manager stay attached. Take care that the entities persisted
+ * by cascade are only detached when the relationship cascades the detach operation. The transaction
+ * can also be committed every given number of chunks to keep the transactions short.
+ *
+ * The identifiers are kept in a {@link GeneratedIdRegistry} and the cleanup deletes the
+ * generated entities with bulk delete statements before calling {@link #cleanData()}.
+ *
+ * @param <T> The type of entities to generate
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public abstract class StreamingDataGenerator<T> implements IDataGenerator {
+	/**
+	 * Default number of entities persisted between two flushes
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/**
+	 * The entity manager injected by the data generator manager
+	 */
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Number of entities persisted between two flushes
+	 */
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+	/**
+	 * Number of chunks between two commits, zero to never commit
+	 */
+	private int commitInterval = 0;
+
+	/**
+	 * Keep track of the identifiers of the generated entities
+	 */
+	private EntityTracker entityTracker;
+
+	/**
+	 * The entities of the current chunk to detach once flushed
+	 */
+	private final List<T> chunk = new ArrayList<>();
+
+	/**
+	 * Configure the number of entities persisted between two flushes of the entity manager.
+	 *
+	 * @param chunkSize The number of entities by chunk
+	 * @return This
+	 */
+	public StreamingDataGenerator<T> chunkSize(int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException("The chunk size must be greater than zero.");
+		}
+
+		this.chunkSize = chunkSize;
+		return this;
+	}
+
+	/**
+	 * Configure the number of chunks between two commits of the transaction. Zero means
+	 * that the transaction is only committed by the data generator manager.
+	 *
+	 * @param commitInterval The number of chunks between two commits
+	 * @return This
+	 */
+	public StreamingDataGenerator<T> commitEvery(int commitInterval) {
+		if (commitInterval < 0) {
+			throw new IllegalArgumentException("The commit interval cannot be negative.");
+		}
+
+		this.commitInterval = commitInterval;
+		return this;
+	}
+
+	/**
+	 * The entities to generate. The iterator should create the entities lazily to
+	 * avoid keeping them all in memory.
+	 *
+	 * @return The iterator of entities to persist
+	 */
+	protected abstract Iterator<T> entities();
+
+	/**
+	 * Cleanup method can be overridden to cleanup additional data. It is called after
+	 * the generated entities are deleted.
+	 */
+	protected void cleanData() { }
+
+	/**
+	 * @return The entity manager used to persist the entities
+	 */
+	protected EntityManager getEntityManager() {
+		return entityManager;
+	}
+
+	/**
+	 * @return The number of generated entities
+	 */
+	public int getGeneratedCount() {
+		return entityTracker != null ? entityTracker.getTrackedCount() : 0;
+	}
+
+	/**
+	 * @return The identifiers of the generated entities in generation order
+	 * @throws UnsupportedOperationException When the identifiers of the entities are not numeric
+	 */
+	public long[] getGeneratedIds() {
+		return entityTracker != null ? entityTracker.getTrackedIdentifiers() : new long[0];
+	}
+
+	/**
+	 * @return The registry of the numeric identifiers of the generated entities per entity class, null before the generation
+	 */
+	public GeneratedIdRegistry getGeneratedIdRegistry() {
+		return entityTracker != null ? entityTracker.getRegistry() : null;
+	}
+
+	@Override
+	public final void generate() {
+		entityTracker = new EntityTracker(entityManager);
+
+		EntityManager trackingEntityManager = entityTracker.getTrackingEntityManager();
+
+		Iterator<T> entities = entities();
+
+		int inChunk = 0;
+		int chunks = 0;
+
+		while (entities.hasNext()) {
+			T entity = entities.next();
+			trackingEntityManager.persist(entity);
+			chunk.add(entity);
+
+			if (++inChunk == chunkSize) {
+				flushChunk();
+				inChunk = 0;
+
+				if (commitInterval > 0 && ++chunks % commitInterval == 0) {
+					entityManager.getTransaction().commit();
+					entityManager.getTransaction().begin();
+				}
+			}
+		}
+
+		if (inChunk > 0) {
+			flushChunk();
+		}
+	}
+
+	@Override
+	public final void cleanup() {
+		if (entityTracker != null) {
+			entityTracker.deleteTrackedEntities();
+			entityTracker = null;
+		}
+
+		cleanData();
+	}
+
+	/**
+	 * Flush the entities of the current chunk, keep their identifiers and detach them
+	 * from the persistence context. The other managed entities are left untouched.
+	 */
+	private void flushChunk() {
+		entityManager.flush();
+		entityTracker.resolveIdentifiers();
+
+		for (T entity : chunk) {
+			entityManager.detach(entity);
+		}
+		chunk.clear();
+	}
+}
@@ -0,0 +1,186 @@
+package io.probedock.junitee.utils;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The entity manager factory registry keeps the entity manager factories for the whole JVM. Each factory
+ * is created once per persistence unit name and properties and shared by all the holders. The factories
+ * are closed when the JVM shuts down, once the pending cleanups and the shared data are handled
+ * (see {@link ShutdownSequence}).
+ * <p>
+ * Creating a factory deploys the persistence metadata which is costly. With the registry, an entity manager
+ * holder can be built for each test instance without paying that cost again.
+ * <p>
+ * Different persistence units can be created concurrently. Only the threads requesting the same
+ * persistence unit with the same properties wait on each other.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public final class EntityManagerFactoryRegistry {
+    private static final Logger LOG = Logger.getLogger(EntityManagerFactoryRegistry.class.getCanonicalName());
+
+    /**
+     * The factory creations per persistence unit name and properties in creation order
+     */
+    private static final Map<List<Object>, FutureTask<EntityManagerFactory>> FACTORIES = new LinkedHashMap<>();
+
+    /**
+     * Flag to register the shutdown task only once
+     */
+    private static boolean shutdownTaskRegistered = false;
+
+    private EntityManagerFactoryRegistry() {}
+
+    /**
+     * Retrieve the shared factory of a persistence unit. The factory is created the first time
+     * it is requested.
+     *
+     * @param persistenceUnitName The persistence unit name
+     * @return The shared factory
+     */
+    public static EntityManagerFactory getFactory(String persistenceUnitName) {
+        return getFactory(persistenceUnitName, null);
+    }
+
+    /**
+     * Retrieve the shared factory of a persistence unit with properties. The factory is created the
+     * first time it is requested with the same name and properties.
+     *
+     * @param persistenceUnitName The persistence unit name
+     * @param properties The properties to create the factory, can be null
+     * @return The shared factory
+     */
+    public static EntityManagerFactory getFactory(final String persistenceUnitName, final Map<String, ?> properties) {
+        if (persistenceUnitName == null) {
+            throw new IllegalArgumentException("The persistence unit name cannot be null.");
+        }
+
+        List<Object> key = key(persistenceUnitName, properties);
+        FutureTask<EntityManagerFactory> creation;
+        boolean creator = false;
+
+        synchronized (EntityManagerFactoryRegistry.class) {
+            creation = FACTORIES.get(key);
+
+            if (creation == null || (creation.isDone() && !isOpen(creation))) {
+                creation = new FutureTask<>(new Callable<EntityManagerFactory>() {
+                    @Override
+                    public EntityManagerFactory call() throws Exception {
+                        return Persistence.createEntityManagerFactory(persistenceUnitName, properties);
+                    }
+                });
+                FACTORIES.put(key, creation);
+                registerShutdownTask();
+                creator = true;
+            }
+        }
+
+        // The creation is done outside of the lock to let other persistence units be created concurrently
+        if (creator) {
+            creation.run();
+        }
+
+        try {
+            return creation.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the entity manager factory " + persistenceUnitName + ".", ie);
+        }
+        catch (ExecutionException ee) {
+            // Forget the failed creation to be able to retry
+            synchronized (EntityManagerFactoryRegistry.class) {
+                if (FACTORIES.get(key) == creation) {
+                    FACTORIES.remove(key);
+                }
+            }
+
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            else if (ee.getCause() instanceof Error) {
+                throw (Error) ee.getCause();
+            }
+            throw new IllegalStateException("Unable to create the entity manager factory " + persistenceUnitName + ".", ee.getCause());
+        }
+    }
+
+    /**
+     * Check if a factory creation succeeded and the factory is still open
+     *
+     * @param creation The factory creation done
+     * @return True if the factory can be used
+     */
+    private static boolean isOpen(FutureTask<EntityManagerFactory> creation) {
+        try {
+            return creation.get().isOpen();
+        }
+        catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Close all the factories created by the registry
+     */
+    static synchronized void closeAll() {
+        List<FutureTask<EntityManagerFactory>> creations = new ArrayList<>(FACTORIES.values());
+        FACTORIES.clear();
+
+        for (FutureTask<EntityManagerFactory> creation : creations) {
+            if (!creation.isDone() || !isOpen(creation)) {
+                continue;
+            }
+
+            EntityManagerFactory factory = null;
+            try {
+                factory = creation.get();
+                factory.close();
+            }
+            catch (InterruptedException | ExecutionException e) {
+                LOG.log(Level.SEVERE, "Unable to retrieve the entity manager factory to close", e);
+            }
+            catch (RuntimeException re) {
+                LOG.log(Level.SEVERE, "Unable to close the entity manager factory " + factory, re);
+            }
+        }
+    }
+
+    /**
+     * Register the closing of the factories as the last phase of the shutdown sequence
+     */
+    private static void registerShutdownTask() {
+        if (!shutdownTaskRegistered) {
+            ShutdownSequence.register(ShutdownSequence.Phase.CLOSE_FACTORIES, new Runnable() {
+                @Override
+                public void run() {
+                    closeAll();
+                }
+            });
+            shutdownTaskRegistered = true;
+        }
+    }
+
+    /**
+     * Build the key of a factory. The properties are copied to avoid later modifications.
+     *
+     * @param persistenceUnitName The persistence unit name
+     * @param properties The properties, can be null
+     * @return The key
+     */
+    private static List<Object> key(String persistenceUnitName, Map<String, ?> properties) {
+        return Arrays.<Object>asList(persistenceUnitName, properties == null ? new HashMap<String, Object>() : new HashMap<>(properties));
+    }
+}
@@ -7,35 +7,117 @@ import io.probedock.junitee.generator.IDataGenerator;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * This class allows the registration of the entity manager factories when a rule is created. Based on the rules registered
  * the data generator will use them to create the entity managers and apply them in the object graph of the generators and
  * also during the transaction management.
+ * <p>
+ * The entity managers are created lazily the first time they are retrieved. The factories can also be registered
+ * lazily through a persistence unit name or a factory supplier. In that case, the factory is only created when its
+ * entity manager is retrieved for the first time. A test class that never touches a persistence unit never pays its
+ * bootstrap cost.
+ * <p>
+ * For the parallel execution of the tests, the holder can hand out one entity manager per thread and factory. The
+ * entity managers are not thread safe, each thread executing a test then works with its own entity managers.
+ * <p>
+ * For the forked test JVMs, the holder can isolate each worker in its own schema or database. The properties of
+ * the factories created from a persistence unit are completed with values derived from the worker identifier
+ * (the surefire fork number mapped to a system property by example) to let the forks generate and cleanup their data without collisions.
  *
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
 public class EntityManagerHolder {
     private static final String DEFAULT = "_DEFAULT_";
 
+    /**
+     * The system property to define the worker identifier. Surefire does not expose the fork number as a
+     * system property, it must be mapped in the {@code systemPropertyVariables} of the surefire configuration
+     * with {@code <junitee.workerId>${surefire.forkNumber}</junitee.workerId>} to get one identifier per fork.
+     */
+    public static final String WORKER_ID_PROPERTY = "junitee.workerId";
+
+    /**
+     * The JPA 2.1 properties to create the schemas and the tables when the factory is created
+     */
+    private static final String SCHEMA_GENERATION_ACTION = "javax.persistence.schema-generation.database.action";
+    private static final String SCHEMA_GENERATION_CREATE_SCHEMAS = "javax.persistence.schema-generation.create-database-schemas";
+
     /**
      * The entity manager factories storage
      */
     private final Map<String, EntityManagerFactory> factories = new HashMap<>();
 
+    /**
+     * The suppliers of the entity manager factories not yet created
+     */
+    private final Map<String, Callable<EntityManagerFactory>> factorySuppliers = new HashMap<>();
+
     /**
      * The entity managers
      */
     private final Map<String, EntityManager> managers = new HashMap<>();
 
+    /**
+     * The entity managers per thread when the per thread mode is enabled
+     */
+    private final ThreadLocal<Map<String, EntityManager>> threadManagers = new ThreadLocal<Map<String, EntityManager>>() {
+        @Override
+        protected Map<String, EntityManager> initialValue() {
+            return new HashMap<>();
+        }
+    };
+
+    /**
+     * Lock to protect the factories and the entity managers
+     */
+    private final Object lock = new Object();
+
+    /**
+     * Define if each thread gets its own entity managers
+     */
+    private boolean perThread = false;
+
+    /**
+     * The patterns of the factory properties derived from the worker identifier
+     */
+    private final Map<String, String> workerProperties = new LinkedHashMap<>();
+
+    /**
+     * Define if the worker schemas are created when the factories are created
+     */
+    private boolean provisionWorkerSchemas = false;
+
+    /**
+     * The entity managers being created in background when the holder is built asynchronously
+     */
+    private final Map<String, Future<EntityManager>> pendingManagers = new HashMap<>();
+
+    /**
+     * The entity manager factories being created from their supplier
+     */
+    private final Map<String, Future<EntityManagerFactory>> pendingFactories = new HashMap<>();
+
     /**
      * Flag to ensure the holder is ready
      */
     private boolean ready = false;
 
+    /**
+     * Constructor of the holders receiving the entity managers of another holder
+     */
+    private EntityManagerHolder() {
+    }
+
     /**
      * Constructor
      *
@@ -49,6 +131,29 @@ public class EntityManagerHolder {
         factories.put(DEFAULT, defaultFactory);
     }
 
+    /**
+     * Constructor with a default factory created on first use
+     *
+     * @param defaultFactorySupplier The supplier of the default factory is mandatory
+     */
+    public EntityManagerHolder(Callable<EntityManagerFactory> defaultFactorySupplier) {
+        if (defaultFactorySupplier == null) {
+            throw new IllegalArgumentException("The default factory supplier cannot be null.");
+        }
+
+        factorySuppliers.put(DEFAULT, defaultFactorySupplier);
+    }
+
+    /**
+     * Constructor with a default factory created on first use from a persistence unit
+     *
+     * @param persistenceUnitName The persistence unit of the default factory
+     * @param properties The properties to create the factory, can be null
+     */
+    public EntityManagerHolder(String persistenceUnitName, Map<String, ?> properties) {
+        factorySuppliers.put(DEFAULT, persistenceUnitSupplier(persistenceUnitName, properties));
+    }
+
     /**
      * @return Check if the holder is ready to use
      */
@@ -57,7 +162,92 @@ public class EntityManagerHolder {
     }
 
     /**
-     * Build the holder to be ready to use in different managers
+     * Hand out one entity manager per thread and factory in place of one entity manager per factory. This
+     * mode must be used when the tests run in parallel (surefire parallel methods or classes by example).
+     *
+     * @return this
+     */
+    public EntityManagerHolder usePerThreadEntityManagers() {
+        if (ready) {
+            throw new IllegalStateException("You cannot change the entity manager mode once the holder is ready to be used.");
+        }
+
+        perThread = true;
+
+        return this;
+    }
+
+    /**
+     * @return True if each thread gets its own entity managers
+     */
+    public boolean isPerThread() {
+        return perThread;
+    }
+
+    /**
+     * Isolate the workers by setting a factory property to a value derived from the worker identifier. The
+     * pattern is formatted with {@link String#format(String, Object...)} and the worker identifier. By example,
+     * {@code isolateWorkers("hibernate.default_schema", "test_%s")} gives the schema test_1 to the first fork and
+     * test_2 to the second one. The JDBC URL can also be isolated to use one database per worker.
+     * <p>
+     * Only the factories created from a persistence unit by the holder are isolated. The factories given directly
+     * or through a supplier are used as they are.
+     *
+     * @param propertyName The name of the factory property
+     * @param valuePattern The pattern of the value
+     * @return this
+     */
+    public EntityManagerHolder isolateWorkers(String propertyName, String valuePattern) {
+        if (ready) {
+            throw new IllegalStateException("You cannot isolate the workers once the holder is ready to be used.");
+        }
+
+        if (propertyName == null || valuePattern == null) {
+            throw new IllegalArgumentException("The property name and the value pattern cannot be null.");
+        }
+
+        workerProperties.put(propertyName, valuePattern);
+
+        return this;
+    }
+
+    /**
+     * Create the schema of the worker and its tables when the factory is created. The JPA 2.1 schema generation
+     * is used unless the properties of the persistence unit already configure it.
+     *
+     * @return this
+     */
+    public EntityManagerHolder provisionWorkerSchemas() {
+        if (ready) {
+            throw new IllegalStateException("You cannot provision the worker schemas once the holder is ready to be used.");
+        }
+
+        provisionWorkerSchemas = true;
+
+        return this;
+    }
+
+    /**
+     * Retrieve the identifier of the current worker from the {@link #WORKER_ID_PROPERTY} system property. There
+     * is no default value, the forks would share the same schema or database without any error otherwise.
+     *
+     * @return The worker identifier
+     * @throws IllegalStateException When the worker identifier is not defined
+     */
+    public static String getWorkerId() {
+        String workerId = System.getProperty(WORKER_ID_PROPERTY);
+
+        if (workerId == null || workerId.isEmpty()) {
+            throw new IllegalStateException("The system property " + WORKER_ID_PROPERTY + " must be defined to isolate " +
+                "the workers. Map it to ${surefire.forkNumber} in the systemPropertyVariables of the surefire configuration.");
+        }
+
+        return workerId;
+    }
+
+    /**
+     * Build the holder to be ready to use in different managers. The entity managers are
+     * created on first use.
      *
      * @return this
      */
@@ -66,11 +256,52 @@ public class EntityManagerHolder {
             throw new IllegalStateException("You cannot call this method more than once.");
         }
 
-        for (Map.Entry<String, EntityManagerFactory> e : factories.entrySet()) {
-            managers.put(e.getKey(), e.getValue().createEntityManager());
+        ready = true;
+
+        return this;
+    }
+
+    /**
+     * Build the holder and start the creation of all the factories and their entity managers in
+     * parallel on background threads. The first retrieval of an entity manager only waits for the
+     * creation of that entity manager.
+     *
+     * @return this
+     */
+    public EntityManagerHolder buildAsync() {
+        build();
+
+        Map<String, Callable<EntityManager>> creations = new HashMap<>();
+
+        for (final Map.Entry<String, EntityManagerFactory> e : factories.entrySet()) {
+            creations.put(e.getKey(), new Callable<EntityManager>() {
+                @Override
+                public EntityManager call() throws Exception {
+                    return e.getValue().createEntityManager();
+                }
+            });
         }
 
-        ready = true;
+        for (final Map.Entry<String, Callable<EntityManagerFactory>> e : factorySuppliers.entrySet()) {
+            creations.put(e.getKey(), new Callable<EntityManager>() {
+                @Override
+                public EntityManager call() throws Exception {
+                    // Keep the factory to create the entity managers of the other threads
+                    return retrieveFactory(e.getKey()).createEntityManager();
+                }
+            });
+        }
+
+        synchronized (lock) {
+            for (Map.Entry<String, Callable<EntityManager>> e : creations.entrySet()) {
+                FutureTask<EntityManager> creation = new FutureTask<>(e.getValue());
+                pendingManagers.put(e.getKey(), creation);
+
+                Thread thread = new Thread(creation, "junitee-bootstrap-" + e.getKey());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
 
         return this;
     }
@@ -84,6 +315,50 @@ public class EntityManagerHolder {
      * @return This
      */
     public EntityManagerHolder addFactory(String name, EntityManagerFactory factory) {
+        checkFactoryName(name);
+
+        factorySuppliers.remove(name);
+        factories.put(name, factory);
+
+        return this;
+    }
+
+    /**
+     * Add a new factory created on first use. If name already used, the new factory will override the previous one.
+     * The name can be null.
+     *
+     * @param name Name of the factory
+     * @param factorySupplier The supplier of the factory
+     * @return This
+     */
+    public EntityManagerHolder addFactory(String name, Callable<EntityManagerFactory> factorySupplier) {
+        checkFactoryName(name);
+
+        factories.remove(name);
+        factorySuppliers.put(name, factorySupplier);
+
+        return this;
+    }
+
+    /**
+     * Add a new factory created on first use from a persistence unit. If name already used, the new factory will
+     * override the previous one. The name can be null.
+     *
+     * @param name Name of the factory
+     * @param persistenceUnitName The persistence unit of the factory
+     * @param properties The properties to create the factory, can be null
+     * @return This
+     */
+    public EntityManagerHolder addFactory(String name, String persistenceUnitName, Map<String, ?> properties) {
+        return addFactory(name, persistenceUnitSupplier(persistenceUnitName, properties));
+    }
+
+    /**
+     * Check that a factory can be added with a name
+     *
+     * @param name The name of the factory
+     */
+    private void checkFactoryName(String name) {
         if (ready) {
             throw new IllegalStateException("You cannot add another factory once the holder is ready to be used.");
         }
@@ -91,10 +366,58 @@ public class EntityManagerHolder {
         if (DEFAULT.equalsIgnoreCase(name)) {
             throw new IllegalArgumentException("Reserved named: " + DEFAULT);
         }
+    }
 
-        factories.put(name, factory);
+    /**
+     * Create a supplier of factory for a persistence unit. The factory is shared through
+     * the {@link EntityManagerFactoryRegistry}.
+     *
+     * @param persistenceUnitName The persistence unit name
+     * @param properties The properties, can be null
+     * @return The supplier
+     */
+    private Callable<EntityManagerFactory> persistenceUnitSupplier(final String persistenceUnitName, final Map<String, ?> properties) {
+        if (persistenceUnitName == null) {
+            throw new IllegalArgumentException("The persistence unit name cannot be null.");
+        }
 
-        return this;
+        return new Callable<EntityManagerFactory>() {
+            @Override
+            public EntityManagerFactory call() throws Exception {
+                return EntityManagerFactoryRegistry.getFactory(persistenceUnitName, workerProperties(properties));
+            }
+
+            @Override
+            public String toString() {
+                return "PersistenceUnit[" + persistenceUnitName + "]";
+            }
+        };
+    }
+
+    /**
+     * Complete the properties of a persistence unit with the worker isolation properties
+     *
+     * @param properties The properties, can be null
+     * @return The properties of the factory for the current worker
+     */
+    Map<String, ?> workerProperties(Map<String, ?> properties) {
+        if (workerProperties.isEmpty() && !provisionWorkerSchemas) {
+            return properties;
+        }
+
+        Map<String, Object> result = properties == null ? new HashMap<String, Object>() : new HashMap<String, Object>(properties);
+
+        String workerId = getWorkerId();
+        for (Map.Entry<String, String> e : workerProperties.entrySet()) {
+            result.put(e.getKey(), String.format(e.getValue(), workerId));
+        }
+
+        if (provisionWorkerSchemas && !result.containsKey(SCHEMA_GENERATION_ACTION)) {
+            result.put(SCHEMA_GENERATION_ACTION, "create");
+            result.put(SCHEMA_GENERATION_CREATE_SCHEMAS, "true");
+        }
+
+        return result;
     }
 
     /**
@@ -118,27 +441,290 @@ public class EntityManagerHolder {
     }
 
     /**
-     * Retrieve the entity manager corresponding to the data manager
+     * Create a new entity manager from the factory corresponding to the finder. The entity manager
+     * is not kept by the holder, the caller is responsible to close it.
+     *
+     * @param fClass The finder class
+     * @return The new entity manager, null if there is no factory for it
+     */
+    public EntityManager createEntityManagerFromFinder(Class<? extends IFinder> fClass) {
+        EntityManagerFactory factory = retrieveFactoryFromClass(fClass);
+        return factory != null ? factory.createEntityManager() : null;
+    }
+
+    /**
+     * Retrieve the entity manager factory corresponding to the finder
+     *
+     * @param fClass The finder class
+     * @return The corresponding factory, null if there is none
+     */
+    public EntityManagerFactory retrieveFactoryFromFinder(Class<? extends IFinder> fClass) {
+        return retrieveFactoryFromClass(fClass);
+    }
+
+    /**
+     * Retrieve the entity manager factory corresponding to the data generator
+     *
+     * @param dgClass The data generator class
+     * @return The corresponding factory, null if there is none
+     */
+    public EntityManagerFactory retrieveFactoryFromDataGenerator(Class<? extends IDataGenerator> dgClass) {
+        return retrieveFactoryFromClass(dgClass);
+    }
+
+    /**
+     * Retrieve the entity manager factory corresponding to a data generator or a finder
+     *
+     * @param cl The data generator or finder class
+     * @return The corresponding factory, null if there is none
+     */
+    private EntityManagerFactory retrieveFactoryFromClass(Class<?> cl) {
+        // The factory is created or awaited when it is deployed in background, without creating any entity manager
+        return retrieveFactory(retrieveFactoryName(cl));
+    }
+
+    /**
+     * Retrieve the entity manager corresponding to the data manager. The entity manager and
+     * its factory are created the first time they are retrieved.
+     * <p>
+     * The factory and the entity manager are created outside of the lock, behind a future per name, to
+     * not block the retrievals of the other persistence units. The lock only protects the publication
+     * of the result.
      *
      * @param cl The data generator class
-     * @return The corresponding entity manager
+     * @return The corresponding entity manager, null if there is no factory for it
      */
     private EntityManager retrieveEntityManager(Class<?> cl) {
+        final String name = retrieveFactoryName(cl);
+
+        Map<String, EntityManager> managers = currentManagers();
+
+        Future<EntityManager> pendingManager;
+        FutureTask<EntityManager> creation = null;
+        synchronized (lock) {
+            if (managers.containsKey(name)) {
+                return managers.get(name);
+            }
+
+            pendingManager = pendingManagers.get(name);
+
+            // In the per thread mode, the entity managers of the current thread are not shared with the other threads
+            if (pendingManager == null && !perThread) {
+                creation = new FutureTask<>(new Callable<EntityManager>() {
+                    @Override
+                    public EntityManager call() throws Exception {
+                        return createEntityManager(name);
+                    }
+                });
+
+                pendingManager = creation;
+                pendingManagers.put(name, creation);
+            }
+        }
+
+        if (creation != null) {
+            creation.run();
+        }
+
+        if (pendingManager != null) {
+            // Wait for the creation outside of the lock to not block the other persistence units
+            EntityManager entityManager = awaitEntityManager(name, pendingManager);
+
+            // Only one thread takes the entity manager created in background
+            synchronized (lock) {
+                if (pendingManagers.get(name) == pendingManager) {
+                    pendingManagers.remove(name);
+
+                    if (factories.containsKey(name) && !managers.containsKey(name)) {
+                        managers.put(name, entityManager);
+                    }
+                }
+
+                if (managers.containsKey(name)) {
+                    return managers.get(name);
+                }
+            }
+        }
+
+        // In the per thread mode or when the entity manager created in background was taken by another thread
+        EntityManager entityManager = createEntityManager(name);
+
+        synchronized (lock) {
+            if (factories.containsKey(name)) {
+                managers.put(name, entityManager);
+            }
+        }
+
+        return entityManager;
+    }
+
+    /**
+     * Create a new entity manager from the factory with a name
+     *
+     * @param name The name of the factory
+     * @return The new entity manager, null if there is no factory with that name
+     */
+    private EntityManager createEntityManager(String name) {
+        EntityManagerFactory factory = retrieveFactory(name);
+        return factory != null ? factory.createEntityManager() : null;
+    }
+
+    /**
+     * @return The entity managers of the current thread in the per thread mode, the shared entity managers otherwise
+     */
+    private Map<String, EntityManager> currentManagers() {
+        return perThread ? threadManagers.get() : managers;
+    }
+
+    /**
+     * Wait for an entity manager created in background. A failed creation is forgotten, so the next
+     * retrieval creates the factory and the entity manager again in the current thread.
+     *
+     * @param name The name of the factory
+     * @param pendingManager The creation of the entity manager
+     * @return The entity manager
+     */
+    private EntityManager awaitEntityManager(String name, Future<EntityManager> pendingManager) {
+        try {
+            return pendingManager.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the entity manager " + name + ".", ie);
+        }
+        catch (ExecutionException ee) {
+            synchronized (lock) {
+                if (pendingManagers.get(name) == pendingManager) {
+                    pendingManagers.remove(name);
+                }
+            }
+
+            throw new IllegalStateException("Unable to create the entity manager " + name + ".", ee.getCause());
+        }
+    }
+
+    /**
+     * Retrieve a factory and create it if it is registered through a supplier. The supplier runs outside
+     * of the lock and only once per name, the other threads wait for its result. A failed creation is
+     * forgotten, so the next retrieval calls the supplier again.
+     *
+     * @param name The name of the factory
+     * @return The factory, null if there is no factory with that name
+     */
+    private EntityManagerFactory retrieveFactory(final String name) {
+        Future<EntityManagerFactory> pendingFactory;
+        FutureTask<EntityManagerFactory> creation = null;
+
+        synchronized (lock) {
+            EntityManagerFactory factory = factories.get(name);
+
+            if (factory != null || !factorySuppliers.containsKey(name)) {
+                return factory;
+            }
+
+            pendingFactory = pendingFactories.get(name);
+
+            if (pendingFactory == null) {
+                creation = new FutureTask<>(factorySuppliers.get(name));
+                pendingFactory = creation;
+                pendingFactories.put(name, creation);
+            }
+        }
+
+        if (creation != null) {
+            creation.run();
+        }
+
+        EntityManagerFactory factory;
+        try {
+            factory = pendingFactory.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the entity manager factory " + name + ".", ie);
+        }
+        catch (ExecutionException ee) {
+            forgetFactory(name, pendingFactory);
+            throw new IllegalStateException("Unable to create the entity manager factory " + name + ".", ee.getCause());
+        }
+
+        if (factory == null) {
+            forgetFactory(name, pendingFactory);
+            throw new IllegalStateException("The supplier of the entity manager factory " + name + " returned null.");
+        }
+
+        synchronized (lock) {
+            if (pendingFactories.get(name) == pendingFactory) {
+                pendingFactories.remove(name);
+                factorySuppliers.remove(name);
+                factories.put(name, factory);
+            }
+
+            return factories.get(name);
+        }
+    }
+
+    /**
+     * Forget a failed creation of factory, so the next retrieval calls the supplier again
+     *
+     * @param name The name of the factory
+     * @param pendingFactory The failed creation of the factory
+     */
+    private void forgetFactory(String name, Future<EntityManagerFactory> pendingFactory) {
+        synchronized (lock) {
+            if (pendingFactories.get(name) == pendingFactory) {
+                pendingFactories.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the name of the factory corresponding to a data generator or a finder
+     *
+     * @param cl The data generator or finder class
+     * @return The name of the factory
+     */
+    public String retrieveFactoryName(Class<?> cl) {
         EntityManagerName entityManagerName = cl.getAnnotation(EntityManagerName.class);
 
         if (entityManagerName != null && !DEFAULT.equalsIgnoreCase(entityManagerName.value())) {
-            return managers.get(entityManagerName.value());
+            return entityManagerName.value();
         }
         else {
-            return managers.get(DEFAULT);
+            return DEFAULT;
+        }
+    }
+
+    /**
+     * Hand the entity managers already created over to a new holder. This holder forgets them and creates
+     * new entity managers on next use, so the entity managers handed over can be used by another thread
+     * while the next tests run. The caller is responsible to close the entity managers of the new holder.
+     *
+     * @return The new holder, ready to use, with the entity managers handed over
+     */
+    public EntityManagerHolder handOverEntityManagers() {
+        EntityManagerHolder holder = new EntityManagerHolder();
+
+        synchronized (lock) {
+            Map<String, EntityManager> managers = currentManagers();
+
+            holder.factories.putAll(factories);
+            holder.managers.putAll(managers);
+            managers.clear();
         }
+
+        holder.ready = true;
+
+        return holder;
     }
 
     /**
-     * @return The collection of managers
+     * @return The collection of managers already created (for the current thread in the per thread mode)
      */
     public Collection<EntityManager> getManagers() {
-        return managers.values();
+        synchronized (lock) {
+            return new ArrayList<>(currentManagers().values());
+        }
     }
 
     @Override
@@ -151,9 +737,13 @@ public class EntityManagerHolder {
             sb.append(e.getKey()).append(": ").append(e.getValue()).append(", ");
         }
 
+        for (Map.Entry<String, Callable<EntityManagerFactory>> e : factorySuppliers.entrySet()) {
+            sb.append(e.getKey()).append(": <lazy ").append(e.getValue()).append(">, ");
+        }
+
         sb.append("], Managers: [");
 
-        for (Map.Entry<String, EntityManager> e : managers.entrySet()) {
+        for (Map.Entry<String, EntityManager> e : currentManagers().entrySet()) {
             sb.append(e.getKey()).append(": ").append(e.getValue()).append(", ");
         }
 
@@ -2,6 +2,8 @@ package io.probedock.junitee.utils;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Helper class to extract class names
@@ -9,9 +11,76 @@ import java.lang.reflect.Modifier;
  * @author Laurent Prevost <laurent.prevost@probedock.io>
  */
 public final class InflectorHelper {
+	/**
+	 * Cache of the resolutions already done per class and thread context class loader. The failed
+	 * resolutions are also kept to avoid trying to load the same missing classes again and again.
+	 */
+	private static final ConcurrentMap<ResolutionKey, Resolution> RESOLUTIONS = new ConcurrentHashMap<>();
+
 	private InflectorHelper() {}
 	
+	/**
+	 * Retrieve the class that can be instantiated for the given class. When the class is
+	 * an interface, the implementation class is found by naming convention.
+	 * <p>
+	 * The resolution is done once per class and thread context class loader, the following calls
+	 * get the result from the cache (even when the resolution failed).
+	 * 
+	 * @param cl The class to resolve
+	 * @return The class that can be instantiated
+	 * @throws NoValidClassException When no valid class can be found
+	 */
 	public static Class retrieveInstantiableClassName(Class cl) throws NoValidClassException {
+		return resolve(cl).getImplementationClass();
+	}
+
+	/**
+	 * Retrieve the public empty constructor of the class that can be instantiated for the given class.
+	 * 
+	 * @param cl The class to resolve
+	 * @return The empty constructor of the class that can be instantiated
+	 * @throws NoValidClassException When no valid class can be found
+	 */
+	public static Constructor retrieveInstantiableConstructor(Class cl) throws NoValidClassException {
+		return resolve(cl).getConstructor();
+	}
+
+	/**
+	 * Retrieve the resolution of a class from the cache or do the resolution
+	 * 
+	 * @param cl The class to resolve
+	 * @return The resolution
+	 */
+	private static Resolution resolve(Class cl) {
+		ResolutionKey key = new ResolutionKey(cl, contextClassLoader());
+		Resolution resolution = RESOLUTIONS.get(key);
+
+		if (resolution == null) {
+			Resolution newResolution;
+			try {
+				newResolution = new Resolution(doResolve(cl), null);
+			}
+			catch (NoValidClassException nvce) {
+				newResolution = new Resolution(null, nvce.getMessage());
+			}
+
+			resolution = RESOLUTIONS.putIfAbsent(key, newResolution);
+			if (resolution == null) {
+				resolution = newResolution;
+			}
+		}
+
+		return resolution;
+	}
+
+	/**
+	 * Do the resolution of the class and validate its empty constructor
+	 * 
+	 * @param cl The class to resolve
+	 * @return The empty constructor of the class that can be instantiated
+	 * @throws NoValidClassException When no valid class can be found
+	 */
+	private static Constructor doResolve(Class cl) throws NoValidClassException {
 		Class implementationClass = cl;
 		
 		String packageName = cl.getPackage().getName();
@@ -29,10 +98,10 @@ public final class InflectorHelper {
 			// Try to load the implementation class of the interface
 			try {
 				if (cl.isMemberClass()) {
-					implementationClass = InflectorHelper.class.getClassLoader().loadClass(packageName + "." + cl.getDeclaringClass().getSimpleName() + "$" + simpleName);
+					implementationClass = loadClass(packageName + "." + cl.getDeclaringClass().getSimpleName() + "$" + simpleName);
 				}
 				else {
-					implementationClass = InflectorHelper.class.getClassLoader().loadClass(packageName + "." + simpleName);
+					implementationClass = loadClass(packageName + "." + simpleName);
 				}
 			}
 			catch (ClassNotFoundException cnfe) {
@@ -59,11 +128,115 @@ public final class InflectorHelper {
 			if (!Modifier.isPublic(constructor.getModifiers())) {
 				throw new NoValidClassException("The empty constructor of class " + implementationClass.getSimpleName() + " must be public.");
 			}
+			return constructor;
 		}
 		catch (NoSuchMethodException | SecurityException e) {
 			throw new NoValidClassException("It seems that " + implementationClass.getSimpleName() + " has no empty constructor.");
 		}
-		
-		return implementationClass;
+	}
+
+	/**
+	 * Load a class with the thread context class loader when there is one. The class loader
+	 * of the helper is used otherwise or when the class is not visible from the context class loader.
+	 * 
+	 * @param className The name of the class to load
+	 * @return The class loaded
+	 * @throws ClassNotFoundException When the class cannot be found
+	 */
+	private static Class loadClass(String className) throws ClassNotFoundException {
+		ClassLoader contextClassLoader = contextClassLoader();
+		ClassLoader helperClassLoader = InflectorHelper.class.getClassLoader();
+
+		if (contextClassLoader != null) {
+			try {
+				return contextClassLoader.loadClass(className);
+			}
+			catch (ClassNotFoundException cnfe) {
+				/* Fallback on the class loader of the helper */
+			}
+		}
+
+		return helperClassLoader.loadClass(className);
+	}
+
+	/**
+	 * @return The thread context class loader, null when there is none or when it is the class loader of the helper
+	 */
+	private static ClassLoader contextClassLoader() {
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		return contextClassLoader != InflectorHelper.class.getClassLoader() ? contextClassLoader : null;
+	}
+
+	/**
+	 * Key of a resolution, the same class can be resolved differently from one context class loader to another
+	 */
+	private static final class ResolutionKey {
+		private final Class cl;
+		private final ClassLoader contextClassLoader;
+
+		private ResolutionKey(Class cl, ClassLoader contextClassLoader) {
+			this.cl = cl;
+			this.contextClassLoader = contextClassLoader;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof ResolutionKey)) {
+				return false;
+			}
+
+			ResolutionKey other = (ResolutionKey) obj;
+			return cl == other.cl && contextClassLoader == other.contextClassLoader;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * cl.hashCode() + System.identityHashCode(contextClassLoader);
+		}
+	}
+
+	/**
+	 * Keep the result of a resolution
+	 */
+	private static final class Resolution {
+		/**
+		 * The empty constructor of the class that can be instantiated, null when the resolution failed
+		 */
+		private final Constructor constructor;
+
+		/**
+		 * The reason of the failure, null when the resolution succeeded
+		 */
+		private final String failure;
+
+		/**
+		 * Constructor
+		 * 
+		 * @param constructor The empty constructor found
+		 * @param failure The reason of the failure
+		 */
+		private Resolution(Constructor constructor, String failure) {
+			this.constructor = constructor;
+			this.failure = failure;
+		}
+
+		/**
+		 * @return The class that can be instantiated
+		 * @throws NoValidClassException When the resolution failed
+		 */
+		private Class getImplementationClass() throws NoValidClassException {
+			return getConstructor().getDeclaringClass();
+		}
+
+		/**
+		 * @return The empty constructor of the class that can be instantiated
+		 * @throws NoValidClassException When the resolution failed
+		 */
+		private Constructor getConstructor() throws NoValidClassException {
+			if (failure != null) {
+				throw new NoValidClassException(failure);
+			}
+			return constructor;
+		}
 	}
 }
@@ -0,0 +1,104 @@
+package io.probedock.junitee.utils;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The shutdown sequence runs the shutdown tasks of the library in a fixed order from one JVM
+ * shutdown hook. The JVM starts its shutdown hooks in no particular order and runs them concurrently,
+ * so the pending cleanups and the shared data must be handled before the entity manager factories
+ * they use are closed.
+ * <p>
+ * The phases are run one after the other in their declaration order. A failing task is logged and
+ * does not prevent the next tasks from running.
+ *
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public final class ShutdownSequence {
+	private static final Logger LOG = Logger.getLogger(ShutdownSequence.class.getCanonicalName());
+
+	/**
+	 * The phases of the shutdown in execution order
+	 */
+	public enum Phase {
+		/**
+		 * Wait for the cleanups still running in background
+		 */
+		DRAIN_CLEANUPS,
+
+		/**
+		 * Cleanup the data of the shared data generators
+		 */
+		RELEASE_SHARED_DATA,
+
+		/**
+		 * Close the entity manager factories
+		 */
+		CLOSE_FACTORIES
+	}
+
+	/**
+	 * The tasks per phase in registration order
+	 */
+	private static final Map<Phase, List<Runnable>> TASKS = new EnumMap<>(Phase.class);
+
+	/**
+	 * Flag to register the shutdown hook only once
+	 */
+	private static boolean shutdownHookRegistered = false;
+
+	private ShutdownSequence() {}
+
+	/**
+	 * Register a task to run when the JVM shuts down. The shutdown hook is registered on first use.
+	 *
+	 * @param phase The phase of the task
+	 * @param task The task to run
+	 */
+	public static synchronized void register(Phase phase, Runnable task) {
+		List<Runnable> tasks = TASKS.get(phase);
+
+		if (tasks == null) {
+			tasks = new ArrayList<>();
+			TASKS.put(phase, tasks);
+		}
+
+		tasks.add(task);
+
+		if (!shutdownHookRegistered) {
+			Runtime.getRuntime().addShutdownHook(new Thread("junitee-shutdown") {
+				@Override
+				public void run() {
+					ShutdownSequence.run();
+				}
+			});
+			shutdownHookRegistered = true;
+		}
+	}
+
+	/**
+	 * Run the tasks of all the phases in order
+	 */
+	static void run() {
+		for (Phase phase : Phase.values()) {
+			List<Runnable> tasks;
+
+			synchronized (ShutdownSequence.class) {
+				tasks = TASKS.containsKey(phase) ? new ArrayList<>(TASKS.get(phase)) : new ArrayList<Runnable>();
+			}
+
+			for (Runnable task : tasks) {
+				try {
+					task.run();
+				}
+				catch (RuntimeException re) {
+					LOG.log(Level.SEVERE, "Unable to run the shutdown task of the phase " + phase, re);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package io.probedock.junitee.dependency;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.lang.reflect.Field;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "field-accessor")
+public class FieldAccessorTest {
+	@Test
+	@ProbeTest(key = "2f8c5a1e7d04")
+	public void accessorShouldBeCachedAndLeaveTheGivenFieldUntouched() throws Throwable {
+		Field field = Holder.class.getDeclaredField("value");
+		FieldAccessor accessor = FieldAccessor.forField(field);
+
+		assertSame(accessor, FieldAccessor.forField(Holder.class.getDeclaredField("value")));
+		assertFalse(field.isAccessible());
+
+		Holder holder = new Holder();
+		assertTrue(accessor.isNull(holder));
+
+		accessor.set(holder, "injected");
+		assertEquals("injected", accessor.get(holder));
+		assertFalse(accessor.isNull(holder));
+	}
+
+	@Test
+	@ProbeTest(key = "c9e04b7a3f61")
+	public void settingAFieldThatCannotBeWrittenShouldFail() throws Throwable {
+		FieldAccessor accessor = FieldAccessor.forField(Holder.class.getDeclaredField("CONSTANT"));
+
+		assertEquals("constant", accessor.get(new Holder()));
+
+		try {
+			accessor.set(new Holder(), "other");
+			fail("A static final field cannot be written.");
+		}
+		catch (DependencyInjectionException die) {
+			assertTrue(die.getMessage().contains("cannot be written"));
+			assertEquals("constant", accessor.get(new Holder()));
+		}
+	}
+
+	@Test
+	@ProbeTest(key = "6b3f0e92a7d5")
+	public void runtimeExceptionsShouldNotBeWrapped() throws Throwable {
+		FieldAccessor accessor = FieldAccessor.forField(Holder.class.getDeclaredField("text"));
+
+		try {
+			accessor.set(new Holder(), 42);
+			fail("A value of the wrong type cannot be set.");
+		}
+		catch (ClassCastException cce) {
+			// The runtime exceptions and the errors are thrown as they are
+		}
+	}
+
+	private static class Holder {
+		private static final Object CONSTANT = "constant";
+
+		private Object value;
+
+		private String text;
+	}
+}
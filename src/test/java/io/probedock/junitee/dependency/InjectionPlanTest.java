@@ -0,0 +1,36 @@
+package io.probedock.junitee.dependency;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import io.probedock.junitee.dummy.ThirdDao;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "injection-plan")
+public class InjectionPlanTest {
+	@Test
+	@ProbeTest(key = "b0c4e9a1d2f3")
+	public void theInjectionPlanShouldBeBuiltOnlyOncePerClass() throws Throwable {
+		assertSame("The same plan should be returned for the same class", InjectionPlan.forClass(ThirdDao.class), InjectionPlan.forClass(ThirdDao.class));
+	}
+
+	@Test
+	@ProbeTest(key = "5e7a20c8f19b")
+	public void theInjectionPlanShouldContainTheFieldsOfTheClassHierarchyFromTheTopToTheBottom() throws Throwable {
+		List<InjectionPlan.InjectionPoint> points = InjectionPlan.forClass(ThirdDao.class).getInjectionPoints();
+
+		assertEquals(4, points.size());
+		assertEquals("abstractEm", points.get(0).getField().getName());
+		assertEquals(InjectionPlan.Kind.PERSISTENCE_CONTEXT, points.get(0).getKind());
+		assertEquals("firstDao", points.get(1).getField().getName());
+		assertEquals(InjectionPlan.Kind.EJB, points.get(1).getKind());
+		assertEquals("thirdEm", points.get(2).getField().getName());
+		assertEquals("secondDao", points.get(3).getField().getName());
+	}
+}
@@ -0,0 +1,9 @@
+package io.probedock.junitee.dummy;
+
+/**
+ * Data generator bound to the default persistence unit to check the parallel generation
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class FirstUnitGenerator extends SecondUnitGenerator {
+}
@@ -0,0 +1,25 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.SharedDataGenerator;
+import io.probedock.junitee.generator.IDataGenerator;
+
+/**
+ * Shared data generator to check that the data are kept until the JVM shutdown
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@SharedDataGenerator
+public class KeptReferenceGenerator implements IDataGenerator {
+	public static int generateCount = 0;
+	public static int cleanupCount = 0;
+	
+	@Override
+	public void generate() {
+		generateCount++;
+	}
+	
+	@Override
+	public void cleanup() {
+		cleanupCount++;
+	}
+}
@@ -0,0 +1,26 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.ReadOnly;
+import io.probedock.junitee.finder.IFinder;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
+
+/**
+ * Finder with a read only method to check the query hints
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class ReadOnlyFinder implements IFinder {
+	@PersistenceContext
+	private EntityManager em;
+
+	@ReadOnly
+	public Query findReadOnly() {
+		return em.createQuery("SELECT e FROM Entity e");
+	}
+
+	public Query findManaged() {
+		return em.createQuery("SELECT e FROM Entity e");
+	}
+}
@@ -0,0 +1,21 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.finder.IFinder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finder returning the results given by the test
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class ResultFinder implements IFinder {
+	/**
+	 * The results returned by the find method
+	 */
+	public static List<Object> results = new ArrayList<>();
+
+	public List<Object> findAll() {
+		return results;
+	}
+}
@@ -0,0 +1,36 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.EntityManagerName;
+import io.probedock.junitee.generator.IDataGenerator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data generator bound to a second persistence unit to check the parallel generation
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@EntityManagerName("second")
+public class SecondUnitGenerator implements IDataGenerator {
+	/**
+	 * Latch shared by the data generators of the different persistence units
+	 */
+	public static CountDownLatch started = new CountDownLatch(0);
+
+	public boolean concurrent = false;
+
+	@Override
+	public void generate() {
+		started.countDown();
+		try {
+			concurrent = started.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void cleanup() {
+	}
+}
@@ -0,0 +1,34 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.SharedDataGenerator;
+import io.probedock.junitee.generator.IDataGenerator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared data generator to check that its create calls are serialized between the test threads
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@SharedDataGenerator(keepUntilShutdown = false)
+public class SharedConcurrentGenerator implements IDataGenerator {
+	public static final AtomicInteger running = new AtomicInteger();
+	public static final AtomicInteger maxRunning = new AtomicInteger();
+
+	@Override
+	public void generate() {
+	}
+
+	public void createReference() throws InterruptedException {
+		int current = running.incrementAndGet();
+		if (current > maxRunning.get()) {
+			maxRunning.set(current);
+		}
+
+		Thread.sleep(20);
+		running.decrementAndGet();
+	}
+
+	@Override
+	public void cleanup() {
+	}
+}
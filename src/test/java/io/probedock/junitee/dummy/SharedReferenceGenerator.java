@@ -0,0 +1,25 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.SharedDataGenerator;
+import io.probedock.junitee.generator.IDataGenerator;
+
+/**
+ * Shared data generator to check that the data are generated and cleaned only once
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@SharedDataGenerator(keepUntilShutdown = false)
+public class SharedReferenceGenerator implements IDataGenerator {
+	public static int generateCount = 0;
+	public static int cleanupCount = 0;
+	
+	@Override
+	public void generate() {
+		generateCount++;
+	}
+	
+	@Override
+	public void cleanup() {
+		cleanupCount++;
+	}
+}
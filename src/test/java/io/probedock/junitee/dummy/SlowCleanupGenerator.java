@@ -0,0 +1,37 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.generator.IDataGenerator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Data generator with a cleanup waiting to be released to check the cleanup in background
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+public class SlowCleanupGenerator implements IDataGenerator {
+	/**
+	 * Latch to release the cleanup
+	 */
+	public static CountDownLatch released = new CountDownLatch(0);
+
+	/**
+	 * The name of the thread that ran the last cleanup
+	 */
+	public static volatile String cleanupThread;
+
+	@Override
+	public void generate() {
+	}
+
+	@Override
+	public void cleanup() {
+		try {
+			released.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		cleanupThread = Thread.currentThread().getName();
+	}
+}
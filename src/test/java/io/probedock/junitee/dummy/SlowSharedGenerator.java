@@ -0,0 +1,34 @@
+package io.probedock.junitee.dummy;
+
+import io.probedock.junitee.annotations.SharedDataGenerator;
+import io.probedock.junitee.generator.IDataGenerator;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Shared data generator to check that a slow generation does not block the other shared data generators
+ * 
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@SharedDataGenerator(keepUntilShutdown = false)
+public class SlowSharedGenerator implements IDataGenerator {
+	public static CountDownLatch started = new CountDownLatch(1);
+	public static CountDownLatch release = new CountDownLatch(1);
+	public static int generateCount = 0;
+
+	@Override
+	public void generate() {
+		generateCount++;
+		started.countDown();
+
+		try {
+			release.await();
+		}
+		catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void cleanup() {
+	}
+}
@@ -4,11 +4,20 @@ import io.probedock.junitee.annotations.Finder;
 import io.probedock.junitee.dummy.DummyFinder;
 import io.probedock.junitee.dummy.FinderWithDao;
 import io.probedock.junitee.dummy.FinderWithInheritanceAndDaos;
+import io.probedock.junitee.dummy.ImplementationDao;
+import io.probedock.junitee.dummy.ReadOnlyFinder;
+import io.probedock.junitee.dummy.ResultFinder;
 import io.probedock.client.annotations.ProbeTest;
 import io.probedock.client.annotations.ProbeTestClass;
 import java.lang.annotation.Annotation;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
 
 import io.probedock.junitee.utils.EntityManagerHolder;
 import org.junit.Before;
@@ -17,6 +26,8 @@ import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -159,4 +170,245 @@ public class FinderManagerTest {
 		assertNotNull(fm.getFinder(FinderWithInheritanceAndDaos.class).childCustomDao);
 		assertNotNull(fm.getFinder(FinderWithInheritanceAndDaos.class).childICustomDao);
 	}
+
+	@Test
+	@ProbeTest(key = "f3a92c0d6e18")
+	@SuppressWarnings("unchecked")
+	public void finderShouldBeReusedAcrossTestsAndInjectedOnlyOnce() throws Throwable {
+		Finder annotation = new Finder() {
+			@Override
+			public Class<? extends IFinder>[] value() {
+				return new Class[] { FinderWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return Finder.class;
+			}
+		};
+
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(entityManagerFactory.createEntityManager()).thenReturn(entityManager, secondEntityManager);
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+
+		// Each test instance has its own holder and finder manager on the same factory
+		FinderManager firstFm = new FinderManager(new EntityManagerHolder(entityManagerFactory).build());
+		FinderManager secondFm = new FinderManager(new EntityManagerHolder(entityManagerFactory).build());
+
+		firstFm.apply(statement, description).evaluate();
+		FinderWithDao finder = firstFm.getFinder(FinderWithDao.class);
+		finder.find();
+		ImplementationDao dao = finder.customDao;
+		verify(entityManager).clear();
+
+		secondFm.apply(statement, description).evaluate();
+		assertSame(finder, secondFm.getFinder(FinderWithDao.class));
+
+		// The DAO injected on the first call are kept and the finder uses the entity manager of the second test
+		finder.customDao = null;
+		finder.find();
+		assertNull(finder.customDao);
+		assertNotNull(dao);
+		verify(entityManager).clear();
+		verify(secondEntityManager).clear();
+
+		// The entity manager injected into the DAO also delegates to the entity manager of the test
+		dao.em.flush();
+		verify(secondEntityManager).flush();
+		verify(entityManager, never()).flush();
+
+		// A thread that did not run a test has no entity manager and never borrows the one of another thread
+		final FinderWithDao pooledFinder = finder;
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pooledFinder.find();
+				}
+				catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		});
+		thread.start();
+		thread.join(5000);
+
+		assertTrue(failure[0] instanceof IllegalStateException);
+		verify(secondEntityManager, times(1)).clear();
+	}
+
+	@Test
+	@ProbeTest(key = "0d7c4e19b2a5")
+	@SuppressWarnings("unchecked")
+	public void finderWithDedicatedEntityManagerShouldNotClearTheEntityManagerOfTheGenerators() throws Throwable {
+		EntityManager dedicatedEntityManager = mock(EntityManager.class);
+		EntityManager nextDedicatedEntityManager = mock(EntityManager.class);
+		when(entityManagerFactory.createEntityManager()).thenReturn(dedicatedEntityManager, nextDedicatedEntityManager);
+		when(dedicatedEntityManager.isOpen()).thenReturn(true);
+
+		Finder annotation = new Finder() {
+			@Override
+			public Class<? extends IFinder>[] value() {
+				return new Class[] { FinderWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return Finder.class;
+			}
+		};
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		final FinderManager fm = new FinderManager(entityManagerHolder).useIsolation(FinderIsolation.DEDICATED_ENTITY_MANAGER);
+
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				fm.getFinder(FinderWithDao.class).find();
+				return null;
+			}
+		}).when(statement).evaluate();
+
+		fm.apply(statement, description).evaluate();
+
+		verify(dedicatedEntityManager).clear();
+		verify(entityManager, never()).clear();
+
+		// The dedicated entity manager is closed after the test and the next test gets a new one
+		verify(dedicatedEntityManager).close();
+		fm.apply(statement, description).evaluate();
+		verify(nextDedicatedEntityManager).clear();
+
+		// The shared entity manager of the generators is never created for the finders
+		verify(entityManagerFactory, times(2)).createEntityManager();
+	}
+
+	@Test
+	@ProbeTest(key = "b5d1e8c370a4")
+	@SuppressWarnings("unchecked")
+	public void finderPoolShouldNotPreventTheFactoriesFromBeingCollected() throws Throwable {
+		Finder annotation = new Finder() {
+			@Override
+			public Class<? extends IFinder>[] value() {
+				return new Class[] { DummyFinder.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return Finder.class;
+			}
+		};
+
+		// A plain factory, the mocks are kept by Mockito
+		EntityManagerFactory factory = (EntityManagerFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+			new Class[] { EntityManagerFactory.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					switch (method.getName()) {
+						case "createEntityManager":
+							return entityManager;
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							return null;
+					}
+				}
+			});
+
+		new FinderManager(new EntityManagerHolder(factory).build())
+			.apply(statement, Description.createSuiteDescription("Some description", annotation)).evaluate();
+
+		WeakReference<EntityManagerFactory> reference = new WeakReference<>(factory);
+		factory = null;
+
+		for (int i = 0; i < 100 && reference.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		assertNull(reference.get());
+	}
+
+	@Test
+	@ProbeTest(key = "9e2f5a07c13d")
+	@SuppressWarnings("unchecked")
+	public void finderWithRefreshShouldOnlyRefreshTheManagedEntitiesReturned() throws Throwable {
+		Finder annotation = new Finder() {
+			@Override
+			public Class<? extends IFinder>[] value() {
+				return new Class[] { ResultFinder.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return Finder.class;
+			}
+		};
+
+		when(entityManager.contains("managed")).thenReturn(true);
+		when(entityManager.contains(1L)).thenThrow(new IllegalArgumentException());
+		ResultFinder.results = Arrays.<Object>asList("managed", "detached", 1L);
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		FinderManager fm = new FinderManager(entityManagerHolder).useIsolation(FinderIsolation.REFRESH);
+		fm.apply(statement, description).evaluate();
+
+		assertEquals(ResultFinder.results, fm.getFinder(ResultFinder.class).findAll());
+
+		verify(entityManager).refresh("managed");
+		verify(entityManager, never()).refresh("detached");
+		verify(entityManager, never()).clear();
+	}
+
+	@Test
+	@ProbeTest(key = "6c14a8f2e3b0")
+	@SuppressWarnings("unchecked")
+	public void queriesOfReadOnlyFinderMethodsShouldReceiveTheReadOnlyHints() throws Throwable {
+		Finder annotation = new Finder() {
+			@Override
+			public Class<? extends IFinder>[] value() {
+				return new Class[] { ReadOnlyFinder.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return Finder.class;
+			}
+		};
+
+		Query readOnlyQuery = mock(Query.class);
+		Query managedQuery = mock(Query.class);
+		Query secondReadOnlyQuery = mock(Query.class);
+		Query secondManagedQuery = mock(Query.class);
+		when(entityManager.createQuery(anyString())).thenReturn(readOnlyQuery, managedQuery, secondReadOnlyQuery, secondManagedQuery);
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		FinderManager fm = new FinderManager(entityManagerHolder);
+		fm.apply(statement, description).evaluate();
+
+		assertSame(readOnlyQuery, fm.getFinder(ReadOnlyFinder.class).findReadOnly());
+		assertSame(managedQuery, fm.getFinder(ReadOnlyFinder.class).findManaged());
+
+		verify(readOnlyQuery).setHint("eclipselink.read-only", "true");
+		verify(readOnlyQuery).setHint("org.hibernate.readOnly", true);
+		verifyZeroInteractions(managedQuery);
+
+		// The read only flag resolved on the first call is reused by the next calls
+		assertSame(secondReadOnlyQuery, fm.getFinder(ReadOnlyFinder.class).findReadOnly());
+		assertSame(secondManagedQuery, fm.getFinder(ReadOnlyFinder.class).findManaged());
+
+		verify(secondReadOnlyQuery).setHint("org.hibernate.readOnly", true);
+		verifyZeroInteractions(secondManagedQuery);
+	}
+
+	@Test
+	@ProbeTest(key = "e81d0b5c7a94")
+	public void projectionQueryShouldUseAConstructorExpression() {
+		assertEquals("SELECT NEW io.probedock.junitee.dummy.DummyFinder(u.id, u.lastname) FROM User u",
+			Projections.jpql(DummyFinder.class, "u.id, u.lastname", "FROM User u"));
+	}
 }
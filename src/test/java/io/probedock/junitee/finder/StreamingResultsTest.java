@@ -0,0 +1,212 @@
+package io.probedock.junitee.finder;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.TypedQuery;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "streaming-results")
+public class StreamingResultsTest {
+	@Test
+	@ProbeTest(key = "b3d8e61f0a27")
+	@SuppressWarnings("unchecked")
+	public void resultsShouldBeLoadedByChunksAndThePersistenceContextClearedBetweenThem() {
+		EntityManager entityManager = mock(EntityManager.class);
+		final TypedQuery<Integer> query = mock(TypedQuery.class);
+
+		final int[] range = new int[] { 0, Integer.MAX_VALUE };
+		when(query.getFirstResult()).thenReturn(0);
+		when(query.getMaxResults()).thenReturn(Integer.MAX_VALUE);
+		when(query.setFirstResult(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[0] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.setMaxResults(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[1] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.getResultList()).thenAnswer(new Answer<List<Integer>>() {
+			@Override
+			public List<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				List<Integer> results = new ArrayList<>();
+				for (int i = range[0]; i < Math.min(25, range[0] + range[1]); i++) {
+					results.add(i);
+				}
+				return results;
+			}
+		});
+
+		List<Integer> results = new ArrayList<>();
+		for (Integer result : StreamingResults.of(entityManager, query).chunkSize(10)) {
+			results.add(result);
+		}
+
+		assertEquals(25, results.size());
+		assertEquals(Integer.valueOf(24), results.get(24));
+		verify(query, times(3)).getResultList();
+		verify(query, times(3)).setHint("org.hibernate.fetchSize", 10);
+		verify(entityManager, times(2)).clear();
+
+		// The query is restored at the end of the iteration
+		assertEquals(0, range[0]);
+		assertEquals(Integer.MAX_VALUE, range[1]);
+	}
+
+	@Test
+	@ProbeTest(key = "4c9e0b7d2a61")
+	@SuppressWarnings("unchecked")
+	public void iteratorsShouldKeepTheirOwnPagingState() {
+		EntityManager entityManager = mock(EntityManager.class);
+		TypedQuery<Integer> query = mockRangeQuery(25);
+
+		StreamingResults<Integer> streamingResults = StreamingResults.of(entityManager, query).chunkSize(10);
+		Iterator<Integer> first = streamingResults.iterator();
+
+		// The second iterator is created while the first one is in the middle of its iteration
+		List<Integer> firstResults = new ArrayList<>();
+		firstResults.add(first.next());
+		Iterator<Integer> second = streamingResults.iterator();
+
+		List<Integer> secondResults = new ArrayList<>();
+		while (first.hasNext() || second.hasNext()) {
+			if (first.hasNext()) {
+				firstResults.add(first.next());
+			}
+			if (second.hasNext()) {
+				secondResults.add(second.next());
+			}
+		}
+
+		assertEquals(25, firstResults.size());
+		assertEquals(firstResults, secondResults);
+		assertEquals(Integer.valueOf(24), secondResults.get(24));
+	}
+
+	@Test
+	@ProbeTest(key = "e71a5d3c9f08")
+	@SuppressWarnings("unchecked")
+	public void keysetPagingShouldFilterOnTheIdentifierOfTheLastResult() {
+		EntityManager entityManager = mock(EntityManager.class);
+		EntityManagerFactory entityManagerFactory = mock(EntityManagerFactory.class);
+		PersistenceUnitUtil persistenceUnitUtil = mock(PersistenceUnitUtil.class);
+		when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+		when(entityManagerFactory.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+		when(persistenceUnitUtil.getIdentifier(any())).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return invocation.getArguments()[0];
+			}
+		});
+
+		final TypedQuery<Integer> query = mock(TypedQuery.class);
+		final int[] range = new int[] { 0, Integer.MAX_VALUE, -1 };
+		when(query.getFirstResult()).thenReturn(0);
+		when(query.getMaxResults()).thenReturn(Integer.MAX_VALUE);
+		when(query.setFirstResult(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[0] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.setMaxResults(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[1] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.setParameter(eq("lastId"), any())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[2] = (Integer) invocation.getArguments()[1];
+				return query;
+			}
+		});
+		when(query.getResultList()).thenAnswer(new Answer<List<Integer>>() {
+			@Override
+			public List<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				// The identifiers are 0 to 24 and the offset must not be used after the first chunk
+				assertEquals(0, range[0]);
+				List<Integer> results = new ArrayList<>();
+				for (int i = range[2] + 1; i < 25 && results.size() < range[1]; i++) {
+					results.add(i);
+				}
+				return results;
+			}
+		});
+
+		List<Integer> results = new ArrayList<>();
+		for (Integer result : StreamingResults.of(entityManager, query).keyset("lastId", -1).chunkSize(10)) {
+			results.add(result);
+		}
+
+		assertEquals(25, results.size());
+		assertEquals(Integer.valueOf(24), results.get(24));
+		verify(query).setParameter("lastId", -1);
+		verify(query).setParameter("lastId", 9);
+		verify(query).setParameter("lastId", 19);
+		verify(query, times(3)).getResultList();
+	}
+
+	/**
+	 * Mock a query returning the integers from 0 to the number of results with its first result and max results
+	 *
+	 * @param count The number of results
+	 * @return The query
+	 */
+	@SuppressWarnings("unchecked")
+	private static TypedQuery<Integer> mockRangeQuery(final int count) {
+		final TypedQuery<Integer> query = mock(TypedQuery.class);
+
+		final int[] range = new int[] { 0, Integer.MAX_VALUE };
+		when(query.getFirstResult()).thenReturn(0);
+		when(query.getMaxResults()).thenReturn(Integer.MAX_VALUE);
+		when(query.setFirstResult(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[0] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.setMaxResults(anyInt())).thenAnswer(new Answer<TypedQuery<Integer>>() {
+			@Override
+			public TypedQuery<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				range[1] = (Integer) invocation.getArguments()[0];
+				return query;
+			}
+		});
+		when(query.getResultList()).thenAnswer(new Answer<List<Integer>>() {
+			@Override
+			public List<Integer> answer(InvocationOnMock invocation) throws Throwable {
+				List<Integer> results = new ArrayList<>();
+				for (int i = range[0]; i < Math.min(count, range[0] + range[1]); i++) {
+					results.add(i);
+				}
+				return results;
+			}
+		});
+
+		return query;
+	}
+}
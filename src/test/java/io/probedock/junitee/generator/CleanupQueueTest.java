@@ -0,0 +1,74 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import javax.persistence.EntityManagerFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "cleanup-queue")
+public class CleanupQueueTest {
+	@Test
+	@ProbeTest(key = "d72b4e09a6c1")
+	public void cleanupsShouldRunInOrderOnTheWorkerWhenTheQueueIsFull() throws Throwable {
+		final Collection<EntityManagerFactory> factories = Collections.singletonList(mock(EntityManagerFactory.class));
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+		final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+		final int count = CleanupQueue.CAPACITY + 5;
+
+		// The first cleanup keeps the worker busy until the queue is full
+		CleanupQueue.submit(factories, new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				release.await();
+				return null;
+			}
+		});
+
+		Thread submitter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					final int index = i;
+					CleanupQueue.submit(factories, new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							order.add(index);
+							threads.add(Thread.currentThread().getName());
+							return null;
+						}
+					});
+				}
+			}
+		});
+		submitter.start();
+
+		// The submitter waits for a free slot instead of running the cleanups itself
+		submitter.join(500);
+		assertTrue(submitter.isAlive());
+		assertTrue(order.isEmpty());
+
+		release.countDown();
+		submitter.join();
+		CleanupQueue.await(factories);
+		CleanupQueue.checkFailures(factories);
+
+		assertEquals(count, order.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, (int) order.get(i));
+			assertEquals("junitee-cleanup", threads.get(i));
+		}
+	}
+}
@@ -229,6 +229,90 @@ public class CompositeDataGeneratorTest {
 		cdg.generate();
 	}
 
+	@Test
+	@ProbeTest(key = "c3e81f5b0a27")
+	public void independentDataGeneratorsShouldRunInRegistrationOrderAndDependentsAfterThem() {
+		final ObjectChecker oc = new ObjectChecker();
+
+		final IDataGenerator first = new IDataGenerator() {
+			@Override public void generate() { oc.orderChecker += "+dg1g"; }
+			@Override public void cleanup() { oc.orderChecker += "+dg1c"; }
+		};
+		final IDataGenerator second = new IDataGenerator() {
+			@Override public void generate() { oc.orderChecker += "+dg2g"; }
+			@Override public void cleanup() { oc.orderChecker += "+dg2c"; }
+		};
+		final IDataGenerator third = new IDataGenerator() {
+			@Override public void generate() { oc.orderChecker += "+dg3g"; }
+			@Override public void cleanup() { oc.orderChecker += "+dg3c"; }
+		};
+
+		CompositeDataGenerator cdg = new CompositeDataGenerator() {
+			@Override protected void setup() {
+				registerRoot(first);
+				register(third, first);
+				registerRoot(second);
+			}
+
+			@Override protected void generateData() { oc.orderChecker += "+create"; }
+			@Override protected void cleanData() { oc.orderChecker += "+clean"; }
+		};
+
+		cdg.generate();
+		cdg.cleanup();
+
+		assertEquals("+dg1g+dg2g+dg3g+create+clean+dg2c+dg3c+dg1c", oc.orderChecker);
+	}
+
+	@Test
+	@ProbeTest(key = "1b96d4e2f07a")
+	public void dependenciesDeclaredByRegisteredCompositeDataGeneratorsShouldBeRespected() {
+		final ObjectChecker oc = new ObjectChecker();
+
+		final IDataGenerator first = new IDataGenerator() {
+			@Override public void generate() { oc.orderChecker += "+dg1g"; }
+			@Override public void cleanup() { oc.orderChecker += "+dg1c"; }
+		};
+		final CompositeDataGenerator second = new CompositeDataGenerator() {
+			@Override protected void generateData() { oc.orderChecker += "+dg2g"; }
+			@Override protected void cleanData() { oc.orderChecker += "+dg2c"; }
+		};
+		second.dependsOn("first", first);
+
+		CompositeDataGenerator cdg = new CompositeDataGenerator() {
+			@Override protected void setup() {
+				registerRoot(second);
+				registerRoot(first);
+			}
+
+			@Override protected void generateData() {}
+			@Override protected void cleanData() {}
+		};
+
+		cdg.generate();
+		cdg.cleanup();
+
+		assertEquals("+dg1g+dg2g+dg2c+dg1c", oc.orderChecker);
+
+		CompositeDataGenerator cyclic = new CompositeDataGenerator() {
+			@Override protected void setup() {
+				register(second);
+				register(first);
+			}
+
+			@Override protected void generateData() {}
+			@Override protected void cleanData() {}
+		};
+
+		try {
+			cyclic.generate();
+			fail("A dependency cycle should be detected");
+		}
+		catch (IllegalStateException ise) {
+			assertEquals("There is a dependency cycle between the registered data generators.", ise.getMessage());
+		}
+	}
+
 	private static class ObjectChecker {
 		private boolean setupCalled = false;
 		private boolean createCalled = false;
@@ -6,10 +6,20 @@ import io.probedock.junitee.dummy.BeforeCrashGenerator;
 import io.probedock.junitee.dummy.DataGeneratorWithDao;
 import io.probedock.junitee.dummy.DataGeneratorWithInheritanceAndDaos;
 import io.probedock.junitee.dummy.DoNotCrashGenerator;
+import io.probedock.junitee.dummy.FirstUnitGenerator;
+import io.probedock.junitee.dummy.KeptReferenceGenerator;
 import io.probedock.junitee.dummy.OrderOneGenerator;
 import io.probedock.junitee.dummy.OrderTwoGenerator;
+import io.probedock.junitee.dummy.SecondUnitGenerator;
+import io.probedock.junitee.dummy.SharedConcurrentGenerator;
+import io.probedock.junitee.dummy.SharedReferenceGenerator;
+import io.probedock.junitee.dummy.SlowCleanupGenerator;
 import io.probedock.client.annotations.ProbeTest;
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
@@ -20,9 +30,11 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.Description;
 import org.junit.runners.model.Statement;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
-import org.mockito.internal.util.reflection.Whitebox;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -51,6 +63,7 @@ public class DataGeneratorManagerTest {
 
 		when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
 		when(entityManager.getTransaction()).thenReturn(entityTransaction);
+		when(entityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
 
 		entityManagerHolder = new EntityManagerHolder(entityManagerFactory).build();
 	}
@@ -269,23 +282,25 @@ public class DataGeneratorManagerTest {
 		};
 
 		Description description = Description.createSuiteDescription("Some description", annotation);
-		DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
-
-		// Evaluate will call two times begin() and commit() for the generate and cleanup data of the data generator
-		gm.apply(statement, description).evaluate();
-		verify(entityTransaction, times(2)).begin();
-		verify(entityTransaction, times(2)).commit();
-
-		// Dirty hack to artificially create a situation where the next method calls are simulated to be run
-		// inside the test method
-		Whitebox.setInternalState(gm, "testRunning", true);
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
 
-		gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
-		verify(entityTransaction, times(3)).begin();
-		verify(entityTransaction, times(3)).commit();
+		// The create methods are called inside the test method, between the generate and cleanup transactions
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
+				verify(entityTransaction, times(2)).begin();
+				verify(entityTransaction, times(2)).commit();
+
+				Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).createSomethingElse();
+				assertNotNull(obj);
+				verify(entityTransaction, times(3)).begin();
+				verify(entityTransaction, times(3)).commit();
+				return null;
+			}
+		}).when(statement).evaluate();
 
-		Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).createSomethingElse();
-		assertNotNull(obj);
+		gm.apply(statement, description).evaluate();
 		verify(entityTransaction, times(4)).begin();
 		verify(entityTransaction, times(4)).commit();
 	}
@@ -312,17 +327,25 @@ public class DataGeneratorManagerTest {
 		};
 
 		Description description = Description.createSuiteDescription("Some description", annotation);
-		DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
-
-		// Evaluate will call two times begin() and commit() for the generate/cleanup data of the data generator
-		gm.apply(statement, description).evaluate();
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
 
-		gm.getDataGenerator(DataGeneratorWithDao.class).deleteSomething();
-		verify(entityTransaction, times(3)).begin();
-		verify(entityTransaction, times(3)).commit();
+		// The delete methods are called inside the test method, between the generate and cleanup transactions
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				gm.getDataGenerator(DataGeneratorWithDao.class).deleteSomething();
+				verify(entityTransaction, times(2)).begin();
+				verify(entityTransaction, times(2)).commit();
+
+				Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).deleteSomethingElse();
+				assertNotNull(obj);
+				verify(entityTransaction, times(3)).begin();
+				verify(entityTransaction, times(3)).commit();
+				return null;
+			}
+		}).when(statement).evaluate();
 
-		Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).deleteSomethingElse();
-		assertNotNull(obj);
+		gm.apply(statement, description).evaluate();
 		verify(entityTransaction, times(4)).begin();
 		verify(entityTransaction, times(4)).commit();
 	}
@@ -349,17 +372,25 @@ public class DataGeneratorManagerTest {
 		};
 
 		Description description = Description.createSuiteDescription("Some description", annotation);
-		DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
-
-		// Evaluate will call two times begin() and commit() for the generate/cleanup data of the data generator
-		gm.apply(statement, description).evaluate();
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
 
-		gm.getDataGenerator(DataGeneratorWithDao.class).updateSomething();
-		verify(entityTransaction, times(3)).begin();
-		verify(entityTransaction, times(3)).commit();
+		// The update methods are called inside the test method, between the generate and cleanup transactions
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				gm.getDataGenerator(DataGeneratorWithDao.class).updateSomething();
+				verify(entityTransaction, times(2)).begin();
+				verify(entityTransaction, times(2)).commit();
+
+				Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).updateSomethingElse();
+				assertNotNull(obj);
+				verify(entityTransaction, times(3)).begin();
+				verify(entityTransaction, times(3)).commit();
+				return null;
+			}
+		}).when(statement).evaluate();
 
-		Object obj = gm.getDataGenerator(DataGeneratorWithDao.class).updateSomethingElse();
-		assertNotNull(obj);
+		gm.apply(statement, description).evaluate();
 		verify(entityTransaction, times(4)).begin();
 		verify(entityTransaction, times(4)).commit();
 	}
@@ -393,4 +424,1060 @@ public class DataGeneratorManagerTest {
 
 		Assert.assertEquals("1234", AbstractOrderGenerator.order);
 	}
+
+	@Test
+	@ProbeTest(key = "0d5be71fa824")
+	@SuppressWarnings("unchecked")
+	public void generatorOnTestClassShouldBeGeneratedOnlyOnceForAllTheTestMethods() throws Throwable {
+		DataGenerator classAnnotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DoNotCrashGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		DataGenerator methodAnnotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final Description firstMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "first", methodAnnotation);
+		final Description secondMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "second");
+		Description classDescription = Description.createSuiteDescription("Some class description", classAnnotation);
+		classDescription.addChild(firstMethodDescription);
+		classDescription.addChild(secondMethodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				gm.apply(statement, firstMethodDescription).evaluate();
+				assertNotNull(gm.getDataGenerator(DataGeneratorWithDao.class));
+				assertEquals(1, gm.getDataGenerator(DoNotCrashGenerator.class).count);
+
+				gm.apply(statement, secondMethodDescription).evaluate();
+				assertEquals(1, gm.getDataGenerator(DoNotCrashGenerator.class).count);
+			}
+		}, classDescription).evaluate();
+
+		// Generate and cleanup for the class, generate and cleanup for the first method
+		verify(entityTransaction, times(4)).begin();
+		verify(entityTransaction, times(4)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "8c61f4a3d0e7")
+	@SuppressWarnings("unchecked")
+	public void generatorOnTestClassShouldNotBeRegisteredAgainOnTestMethod() throws Throwable {
+		final DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DoNotCrashGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final Description methodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "method", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description", annotation);
+		classDescription.addChild(methodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
+
+		try {
+			gm.apply(new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					gm.apply(statement, methodDescription).evaluate();
+				}
+			}, classDescription).evaluate();
+			fail("The data generator exception should be raised to prevent registering a class generator on a test method.");
+		}
+		catch (DataGeneratorException dge) { /* Do nothing */ }
+	}
+
+	@Test
+	@ProbeTest(key = "e51a9d03c7f2")
+	@SuppressWarnings("unchecked")
+	public void sharedGeneratorShouldBeGeneratedOnceAndCleanedWhenTheLastUserReleasesIt() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SharedReferenceGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		SharedReferenceGenerator.generateCount = 0;
+		SharedReferenceGenerator.cleanupCount = 0;
+
+		final Description methodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "method", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description", annotation);
+		classDescription.addChild(methodDescription);
+
+		final DataGeneratorManager firstGm = new DataGeneratorManager(entityManagerHolder);
+		final DataGeneratorManager secondGm = new DataGeneratorManager(new EntityManagerHolder(entityManagerFactory).build());
+
+		firstGm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				secondGm.apply(new Statement() {
+					@Override
+					public void evaluate() throws Throwable {
+						assertSame(firstGm.getDataGenerator(SharedReferenceGenerator.class), secondGm.getDataGenerator(SharedReferenceGenerator.class));
+					}
+				}, methodDescription).evaluate();
+
+				assertEquals(1, SharedReferenceGenerator.generateCount);
+				assertEquals(0, SharedReferenceGenerator.cleanupCount);
+			}
+		}, classDescription).evaluate();
+
+		assertEquals(1, SharedReferenceGenerator.generateCount);
+		assertEquals(1, SharedReferenceGenerator.cleanupCount);
+	}
+
+	@Test
+	@ProbeTest(key = "5d1e8b37a0c4")
+	@SuppressWarnings("unchecked")
+	public void sharedGeneratorShouldBeKeptForTheTestClassesRunOneAfterTheOtherUntilTheShutdown() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { KeptReferenceGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		KeptReferenceGenerator.generateCount = 0;
+		KeptReferenceGenerator.cleanupCount = 0;
+
+		when(entityManager.isOpen()).thenReturn(true);
+
+		final IDataGenerator[] generators = new IDataGenerator[2];
+
+		// Each test class has its own holder and manager, the factory is the same
+		for (int i = 0; i < generators.length; i++) {
+			final int index = i;
+			final DataGeneratorManager gm = new DataGeneratorManager(new EntityManagerHolder(entityManagerFactory).build());
+			Description classDescription = Description.createSuiteDescription("Test class " + i, annotation);
+			classDescription.addChild(Description.createTestDescription(DataGeneratorManagerTest.class, "method"));
+
+			gm.apply(new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					generators[index] = gm.getDataGenerator(KeptReferenceGenerator.class);
+				}
+			}, classDescription).evaluate();
+
+			assertEquals(1, KeptReferenceGenerator.generateCount);
+			assertEquals(0, KeptReferenceGenerator.cleanupCount);
+		}
+
+		assertSame(generators[0], generators[1]);
+
+		SharedDataGeneratorRegistry.releaseAll();
+
+		assertEquals(1, KeptReferenceGenerator.cleanupCount);
+		verify(entityManager, atLeastOnce()).close();
+	}
+
+	@Test
+	@ProbeTest(key = "3a8f6e2b51dc")
+	@SuppressWarnings("unchecked")
+	public void consecutiveTestsWithSameGeneratorsShouldReuseTheDataWhenNothingIsWritten() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final Description firstMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "first", annotation);
+		final Description secondMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "second", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description");
+		classDescription.addChild(firstMethodDescription);
+		classDescription.addChild(secondMethodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder).enableDataReuse();
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				gm.apply(statement, firstMethodDescription).evaluate();
+				gm.apply(statement, secondMethodDescription).evaluate();
+			}
+		}, classDescription).evaluate();
+
+		// Generate for the first method and cleanup at the end of the class
+		verify(entityTransaction, times(2)).begin();
+		verify(entityTransaction, times(2)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "c7d04b9ef316")
+	@SuppressWarnings("unchecked")
+	public void dataWrittenThroughGeneratorsShouldNotBeReusedByTheNextTest() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final Description firstMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "first", annotation);
+		final Description secondMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "second", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description");
+		classDescription.addChild(firstMethodDescription);
+		classDescription.addChild(secondMethodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder).enableDataReuse();
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				gm.apply(new Statement() {
+					@Override
+					public void evaluate() throws Throwable {
+						gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
+					}
+				}, firstMethodDescription).evaluate();
+
+				gm.apply(statement, secondMethodDescription).evaluate();
+			}
+		}, classDescription).evaluate();
+
+		// Generate, create and cleanup for the first method, generate for the second method and cleanup at the end of the class
+		verify(entityTransaction, times(5)).begin();
+		verify(entityTransaction, times(5)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "4e7b1d90a6c3")
+	@SuppressWarnings("unchecked")
+	public void deferredCleanupsShouldRunOnceInOneTransactionAtTheEndOfTheClass() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final Description firstMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "first", annotation);
+		final Description secondMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "second", annotation);
+		final Description thirdMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "third", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description");
+		classDescription.addChild(firstMethodDescription);
+		classDescription.addChild(secondMethodDescription);
+		classDescription.addChild(thirdMethodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder).enableDeferredCleanup();
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				gm.apply(statement, firstMethodDescription).evaluate();
+				gm.apply(statement, secondMethodDescription).evaluate();
+				gm.apply(statement, thirdMethodDescription).evaluate();
+
+				// Only the generations are done during the tests
+				verify(entityTransaction, times(3)).commit();
+			}
+		}, classDescription).evaluate();
+
+		// The three cleanups are done in the same transaction at the end of the class
+		verify(entityTransaction, times(4)).begin();
+		verify(entityTransaction, times(4)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "b80d6e13f5a2")
+	@SuppressWarnings("unchecked")
+	public void cleanupsShouldNotBeDeferredWithPerThreadEntityManagers() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		final EntityManager threadEntityManager = mock(EntityManager.class);
+		final EntityTransaction threadTransaction = mock(EntityTransaction.class);
+		when(entityManagerFactory.createEntityManager()).thenReturn(entityManager, threadEntityManager);
+		when(threadEntityManager.getTransaction()).thenReturn(threadTransaction);
+
+		final Description firstMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "first", annotation);
+		final Description secondMethodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "second", annotation);
+		Description classDescription = Description.createSuiteDescription("Some class description");
+		classDescription.addChild(firstMethodDescription);
+		classDescription.addChild(secondMethodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(new EntityManagerHolder(entityManagerFactory).usePerThreadEntityManagers().build()).enableDeferredCleanup();
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				gm.apply(statement, firstMethodDescription).evaluate();
+
+				// The second test runs on another thread with its own entity manager
+				final Throwable[] failure = new Throwable[1];
+				Thread other = new Thread() {
+					@Override
+					public void run() {
+						try {
+							gm.apply(statement, secondMethodDescription).evaluate();
+						}
+						catch (Throwable t) {
+							failure[0] = t;
+						}
+					}
+				};
+				other.start();
+				other.join(5000);
+				assertNull(failure[0]);
+
+				// Each test is cleaned right away on the entity manager of its own thread
+				verify(entityTransaction, times(2)).commit();
+				verify(threadTransaction, times(2)).commit();
+			}
+		}, classDescription).evaluate();
+
+		verify(entityTransaction, times(2)).commit();
+		verify(threadTransaction, times(2)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "95b2e8d1a04f")
+	@SuppressWarnings("unchecked")
+	public void callsDoneInBatchShouldJoinTheBatchTransactionAndFlushPeriodically() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return false;
+			}
+		};
+
+		final boolean[] active = new boolean[] { false };
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable { active[0] = true; return null; }
+		}).when(entityTransaction).begin();
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable { active[0] = false; return null; }
+		}).when(entityTransaction).commit();
+		when(entityTransaction.isActive()).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable { return active[0]; }
+		});
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder);
+
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				// Only the transaction of the generation is done before the test
+				verify(entityTransaction, times(1)).begin();
+
+				gm.executeInBatch(2, new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < 5; i++) {
+							gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
+						}
+					}
+				});
+
+				return null;
+			}
+		}).when(statement).evaluate();
+
+		gm.apply(statement, description).evaluate();
+
+		// One transaction for the generation and one for the whole batch
+		verify(entityTransaction, times(2)).begin();
+		verify(entityTransaction, times(2)).commit();
+		verify(entityManager, times(2)).flush();
+	}
+
+	@Test
+	@ProbeTest(key = "2c8f5a1e7d40")
+	@SuppressWarnings("unchecked")
+	public void batchShouldOnlyStartTheTransactionsOfTheUsedUnitsAndRollbackThemOnError() throws Throwable {
+		EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		final EntityManagerHolder holder = new EntityManagerHolder(entityManagerFactory).addFactory("second", secondFactory).build();
+
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return false;
+			}
+		};
+
+		final boolean[] active = new boolean[] { false };
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable { active[0] = true; return null; }
+		}).when(entityTransaction).begin();
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable { active[0] = false; return null; }
+		}).when(entityTransaction).commit();
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable { active[0] = false; return null; }
+		}).when(entityTransaction).rollback();
+		when(entityTransaction.isActive()).thenAnswer(new Answer<Boolean>() {
+			@Override
+			public Boolean answer(InvocationOnMock invocation) throws Throwable { return active[0]; }
+		});
+
+		final DataGeneratorManager gm = new DataGeneratorManager(holder);
+
+		doAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				// The entity manager of the second unit exists but is not used by the batch
+				holder.retrieveEntityManagerFromDataGenerator(SecondUnitGenerator.class);
+
+				try {
+					gm.executeInBatch(new Runnable() {
+						@Override
+						public void run() {
+							gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
+							throw new AssertionError("Failed assertion");
+						}
+					});
+					fail("The error of the batch should be propagated");
+				}
+				catch (AssertionError ae) {
+					assertEquals("Failed assertion", ae.getMessage());
+				}
+
+				// The next transaction can be started
+				assertFalse(active[0]);
+				gm.getDataGenerator(DataGeneratorWithDao.class).createSomething();
+
+				return null;
+			}
+		}).when(statement).evaluate();
+
+		gm.apply(statement, Description.createSuiteDescription("Some description", annotation)).evaluate();
+
+		verify(entityTransaction, times(1)).rollback();
+		verify(entityTransaction, times(3)).begin();
+		verifyZeroInteractions(secondEntityManager);
+	}
+
+	@Test
+	@ProbeTest(key = "f3a07c5e2b91")
+	@SuppressWarnings("unchecked")
+	public void classDataGeneratorsBoundToTheClassThreadShouldBeRejectedWithPerThreadEntityManagers() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DataGeneratorWithDao.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		DataGenerator sharedAnnotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { KeptReferenceGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		Description classDescription = Description.createSuiteDescription("Some class description", annotation);
+		classDescription.addChild(Description.createTestDescription(DataGeneratorManagerTest.class, "method"));
+		Description sharedClassDescription = Description.createSuiteDescription("Some class description", sharedAnnotation);
+		sharedClassDescription.addChild(Description.createTestDescription(DataGeneratorManagerTest.class, "method"));
+
+		DataGeneratorManager gm = new DataGeneratorManager(new EntityManagerHolder(entityManagerFactory).usePerThreadEntityManagers().build());
+
+		try {
+			gm.apply(statement, classDescription).evaluate();
+			fail("The data generators of the class should be rejected in the per thread mode");
+		}
+		catch (DataGeneratorException dge) {
+			assertTrue(dge.getMessage().contains("cannot be configured on the test class"));
+		}
+
+		verify(statement, never()).evaluate();
+
+		// The shared data generators have their own entity manager
+		gm.apply(statement, sharedClassDescription).evaluate();
+		verify(statement, times(1)).evaluate();
+
+		SharedDataGeneratorRegistry.releaseAll();
+	}
+
+	@Test
+	@ProbeTest(key = "a8c3e61f05d7")
+	@SuppressWarnings("unchecked")
+	public void sharedGeneratorCallsShouldBeSerializedBetweenTheTestThreads() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SharedConcurrentGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		SharedConcurrentGenerator.running.set(0);
+		SharedConcurrentGenerator.maxRunning.set(0);
+
+		Description classDescription = Description.createSuiteDescription("Some class description", annotation);
+		classDescription.addChild(Description.createTestDescription(DataGeneratorManagerTest.class, "method"));
+
+		final DataGeneratorManager gm = new DataGeneratorManager(new EntityManagerHolder(entityManagerFactory).usePerThreadEntityManagers().build());
+		final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+
+		gm.apply(new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				final CountDownLatch start = new CountDownLatch(1);
+				List<Thread> threads = new ArrayList<>();
+
+				// The test threads use the same shared data generator and its entity manager
+				for (int i = 0; i < 4; i++) {
+					Thread thread = new Thread(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								start.await();
+								gm.getDataGenerator(SharedConcurrentGenerator.class).createReference();
+							}
+							catch (Throwable t) {
+								failures.add(t);
+							}
+						}
+					});
+					thread.start();
+					threads.add(thread);
+				}
+
+				start.countDown();
+				for (Thread thread : threads) {
+					thread.join();
+				}
+			}
+		}, classDescription).evaluate();
+
+		assertTrue(failures.isEmpty());
+		assertEquals(1, SharedConcurrentGenerator.maxRunning.get());
+	}
+
+	@Test
+	@ProbeTest(key = "4e7d2a9c81b6")
+	@SuppressWarnings("unchecked")
+	public void dataGeneratorsOfDifferentPersistenceUnitsShouldRunConcurrentlyWhenEnabled() throws Throwable {
+		EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		EntityTransaction secondTransaction = mock(EntityTransaction.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+		when(secondEntityManager.getTransaction()).thenReturn(secondTransaction);
+
+		EntityManagerHolder holder = new EntityManagerHolder(entityManagerFactory).addFactory("second", secondFactory).build();
+
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { FirstUnitGenerator.class, SecondUnitGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		SecondUnitGenerator.started = new CountDownLatch(2);
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		DataGeneratorManager gm = new DataGeneratorManager(holder).enableParallelPersistenceUnits();
+
+		gm.apply(statement, description).evaluate();
+
+		assertTrue(gm.getDataGenerator(FirstUnitGenerator.class).concurrent);
+		assertTrue(gm.getDataGenerator(SecondUnitGenerator.class).concurrent);
+
+		// Generation and cleanup are flushed and committed on both units
+		verify(entityManager, times(2)).flush();
+		verify(secondEntityManager, times(2)).flush();
+		verify(entityTransaction, times(2)).commit();
+		verify(secondTransaction, times(2)).commit();
+	}
+
+	@Test
+	@ProbeTest(key = "d05b3f8e6a19")
+	@SuppressWarnings("unchecked")
+	public void failingFlushOnOnePersistenceUnitShouldRollbackAllTheUnits() throws Throwable {
+		EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		EntityTransaction secondTransaction = mock(EntityTransaction.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+		when(secondEntityManager.getTransaction()).thenReturn(secondTransaction);
+		when(entityTransaction.isActive()).thenReturn(true);
+		when(secondTransaction.isActive()).thenReturn(true);
+		doThrow(new RuntimeException("Constraint violation")).when(secondEntityManager).flush();
+
+		EntityManagerHolder holder = new EntityManagerHolder(entityManagerFactory).addFactory("second", secondFactory).build();
+
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { FirstUnitGenerator.class, SecondUnitGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		SecondUnitGenerator.started = new CountDownLatch(0);
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		DataGeneratorManager gm = new DataGeneratorManager(holder).enableParallelPersistenceUnits();
+
+		try {
+			gm.apply(statement, description).evaluate();
+			fail("The generation should fail when a flush fails");
+		}
+		catch (DataGeneratorException dge) { /* Expected */ }
+
+		verify(statement, never()).evaluate();
+		verify(entityTransaction, never()).commit();
+		verify(secondTransaction, never()).commit();
+		verify(entityTransaction, atLeastOnce()).rollback();
+		verify(secondTransaction, atLeastOnce()).rollback();
+	}
+
+	@Test
+	@ProbeTest(key = "93a6c1f47e20")
+	@SuppressWarnings("unchecked")
+	public void transactionsShouldOnlyBeManagedOnThePersistenceUnitsUsedByTheDataGenerators() throws Throwable {
+		EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		EntityManagerHolder holder = new EntityManagerHolder(entityManagerFactory).addFactory("second", secondFactory).build();
+
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DoNotCrashGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+		new DataGeneratorManager(holder).apply(statement, description).evaluate();
+
+		verify(entityTransaction, times(2)).begin();
+		verify(entityTransaction, times(2)).commit();
+		verify(entityManager, times(2)).clear();
+		verifyZeroInteractions(secondEntityManager);
+	}
+
+	@Test
+	@ProbeTest(key = "c25e08b9d7f4")
+	@SuppressWarnings("unchecked")
+	public void asyncCleanupShouldRunInBackgroundAndBeDrainedBeforeTheNextGeneration() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SlowCleanupGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		SlowCleanupGenerator.released = new CountDownLatch(1);
+		SlowCleanupGenerator.cleanupThread = null;
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+
+		try {
+			// The test returns while its cleanup is still waiting in background
+			new DataGeneratorManager(entityManagerHolder).enableAsyncCleanup().apply(statement, description).evaluate();
+			assertNull(SlowCleanupGenerator.cleanupThread);
+
+			SlowCleanupGenerator.released.countDown();
+
+			// The next generation on the same persistence unit waits for the pending cleanup
+			final String[] cleanupThread = new String[1];
+			doAnswer(new Answer<Object>() {
+				@Override
+				public Object answer(InvocationOnMock invocation) throws Throwable {
+					cleanupThread[0] = SlowCleanupGenerator.cleanupThread;
+					return null;
+				}
+			}).when(statement).evaluate();
+
+			new DataGeneratorManager(entityManagerHolder).apply(statement, description).evaluate();
+			assertEquals("junitee-cleanup", cleanupThread[0]);
+			verify(entityTransaction, times(4)).commit();
+		}
+		finally {
+			SlowCleanupGenerator.released = new CountDownLatch(0);
+		}
+	}
+
+	@Test
+	@ProbeTest(key = "7e0b3d92c4a8")
+	@SuppressWarnings("unchecked")
+	public void asyncCleanupShouldOwnTheEntityManagersOfTheTestAndReportItsFailureToTheNextTest() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SlowCleanupGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		EntityManager nextEntityManager = mock(EntityManager.class);
+		when(entityManagerFactory.createEntityManager()).thenReturn(entityManager, nextEntityManager);
+		when(nextEntityManager.getTransaction()).thenReturn(entityTransaction);
+		when(nextEntityManager.getEntityManagerFactory()).thenReturn(entityManagerFactory);
+		when(entityManager.isOpen()).thenReturn(true);
+
+		// The commit of the cleanup fails
+		doNothing().doThrow(new IllegalStateException("Commit failed")).when(entityTransaction).commit();
+
+		SlowCleanupGenerator.released = new CountDownLatch(0);
+
+		new DataGeneratorManager(entityManagerHolder).enableAsyncCleanup()
+			.apply(statement, Description.createSuiteDescription("Some description", annotation)).evaluate();
+
+		// The next tests of the holder do not share the entity manager with the worker
+		assertSame(nextEntityManager, entityManagerHolder.retrieveEntityManagerFromDataGenerator(SlowCleanupGenerator.class));
+
+		// The failure is reported by the next generation on the same persistence unit once the cleanup is done
+		try {
+			new DataGeneratorManager(entityManagerHolder).enableAsyncCleanup()
+				.apply(statement, Description.createSuiteDescription("Next description", annotation)).evaluate();
+			fail("The failure of the asynchronous cleanup must be reported.");
+		}
+		catch (DataGeneratorException dge) {
+			assertEquals("The asynchronous cleanup of a previous test failed.", dge.getMessage());
+		}
+
+		verify(entityManager).close();
+		verify(nextEntityManager, never()).close();
+	}
+
+	@Test
+	@ProbeTest(key = "3f6c9a1d82e5")
+	@SuppressWarnings("unchecked")
+	public void asyncCleanupFailureShouldOnlyBeReportedToTheAsyncManagersOfTheSamePersistenceUnit() throws Throwable {
+		DataGenerator annotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SlowCleanupGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		Description description = Description.createSuiteDescription("Some description", annotation);
+
+		// The commit of the cleanup fails
+		doNothing().doThrow(new IllegalStateException("Commit failed")).doNothing().when(entityTransaction).commit();
+
+		SlowCleanupGenerator.released = new CountDownLatch(0);
+
+		DataGeneratorManager failingManager = new DataGeneratorManager(entityManagerHolder).enableAsyncCleanup();
+		failingManager.apply(statement, description).evaluate();
+
+		// Another persistence unit with the asynchronous cleanup does not see the failure
+		EntityManagerFactory otherFactory = mock(EntityManagerFactory.class);
+		EntityManager otherEntityManager = mock(EntityManager.class);
+		when(otherFactory.createEntityManager()).thenReturn(otherEntityManager);
+		when(otherEntityManager.getTransaction()).thenReturn(mock(EntityTransaction.class));
+		when(otherEntityManager.getEntityManagerFactory()).thenReturn(otherFactory);
+
+		new DataGeneratorManager(new EntityManagerHolder(otherFactory).build()).enableAsyncCleanup()
+			.apply(statement, description).evaluate();
+
+		// The same persistence unit without the asynchronous cleanup does not see the failure
+		new DataGeneratorManager(entityManagerHolder).apply(statement, description).evaluate();
+
+		// The manager of the failing cleanup reports it to its next test
+		try {
+			failingManager.apply(statement, Description.createTestDescription(DataGeneratorManagerTest.class, "next")).evaluate();
+			fail("The failure of the asynchronous cleanup must be reported.");
+		}
+		catch (DataGeneratorException dge) {
+			assertEquals("The asynchronous cleanup of a previous test failed.", dge.getMessage());
+		}
+
+		// The failure is reported only once
+		failingManager.apply(statement, Description.createTestDescription(DataGeneratorManagerTest.class, "last")).evaluate();
+	}
+
+	@Test
+	@ProbeTest(key = "5d8a2f0c7b19")
+	@SuppressWarnings("unchecked")
+	public void asyncCleanupShouldRunUnderTheClassRuleAndBeDrainedBeforeTheClassCleanup() throws Throwable {
+		DataGenerator classAnnotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { DoNotCrashGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		DataGenerator methodAnnotation = new DataGenerator() {
+			@Override
+			public Class<? extends IDataGenerator>[] value() {
+				return new Class[] { SlowCleanupGenerator.class };
+			}
+
+			@Override
+			public Class<? extends Annotation> annotationType() {
+				return DataGenerator.class;
+			}
+
+			@Override
+			public boolean executeCleanup() {
+				return true;
+			}
+		};
+
+		EntityManager methodEntityManager = mock(EntityManager.class);
+		when(entityManagerFactory.createEntityManager()).thenReturn(entityManager, methodEntityManager);
+		when(methodEntityManager.getTransaction()).thenReturn(entityTransaction);
+		when(entityManager.isOpen()).thenReturn(true);
+		when(methodEntityManager.isOpen()).thenReturn(true);
+
+		SlowCleanupGenerator.released = new CountDownLatch(1);
+		SlowCleanupGenerator.cleanupThread = null;
+
+		final Description methodDescription = Description.createTestDescription(DataGeneratorManagerTest.class, "method", methodAnnotation);
+		Description classDescription = Description.createSuiteDescription("Some class description", classAnnotation);
+		classDescription.addChild(methodDescription);
+
+		final DataGeneratorManager gm = new DataGeneratorManager(entityManagerHolder).enableAsyncCleanup();
+
+		try {
+			gm.apply(new Statement() {
+				@Override
+				public void evaluate() throws Throwable {
+					// The test returns while its cleanup is still waiting in background
+					gm.apply(statement, methodDescription).evaluate();
+					assertNull(SlowCleanupGenerator.cleanupThread);
+
+					// The class data generators keep their own entity manager until the end of the class
+					verify(entityManager, never()).close();
+
+					SlowCleanupGenerator.released.countDown();
+				}
+			}, classDescription).evaluate();
+		}
+		finally {
+			SlowCleanupGenerator.released = new CountDownLatch(0);
+		}
+
+		// The cleanup of the test is drained before the cleanup of the class
+		assertEquals("junitee-cleanup", SlowCleanupGenerator.cleanupThread);
+		InOrder inOrder = inOrder(methodEntityManager, entityManager);
+		inOrder.verify(methodEntityManager).close();
+		inOrder.verify(entityManager).close();
+	}
 }
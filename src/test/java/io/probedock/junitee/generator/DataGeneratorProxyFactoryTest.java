@@ -0,0 +1,63 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import io.probedock.junitee.dummy.DataGeneratorWithDao;
+import io.probedock.junitee.dummy.DoNotCrashGenerator;
+import java.lang.reflect.Method;
+import net.sf.cglib.proxy.MethodInterceptor;
+import net.sf.cglib.proxy.MethodProxy;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "data-generator-proxy-factory")
+public class DataGeneratorProxyFactoryTest {
+	@Test
+	@ProbeTest(key = "a93e0d7c41b5")
+	public void dataGeneratorWithoutCreateUpdateOrDeleteMethodsShouldNotBeProxied() throws Throwable {
+		DataGeneratorProxyFactory factory = DataGeneratorProxyFactory.forClass(DoNotCrashGenerator.class);
+
+		assertFalse(factory.isProxied());
+		assertEquals(DoNotCrashGenerator.class, factory.newInstance(new CountingCallback()).getClass());
+	}
+
+	@Test
+	@ProbeTest(key = "27c5fb8e06d4")
+	public void proxyClassShouldBeSharedByAllTheProxiesOfTheSameDataGenerator() throws Throwable {
+		DataGeneratorProxyFactory factory = DataGeneratorProxyFactory.forClass(DataGeneratorWithDao.class);
+
+		assertTrue(factory.isProxied());
+		assertSame(factory, DataGeneratorProxyFactory.forClass(DataGeneratorWithDao.class));
+		assertSame(factory.newInstance(new CountingCallback()).getClass(), factory.newInstance(new CountingCallback()).getClass());
+	}
+
+	@Test
+	@ProbeTest(key = "f2d86a1b9c03")
+	public void onlyCreateUpdateAndDeleteMethodsShouldBeInterceptedByTheCallback() throws Throwable {
+		CountingCallback callback = new CountingCallback();
+		DataGeneratorWithDao generator = (DataGeneratorWithDao) DataGeneratorProxyFactory.forClass(DataGeneratorWithDao.class).newInstance(callback);
+
+		generator.generate();
+		generator.cleanup();
+		assertEquals(0, callback.count);
+
+		generator.createSomething();
+		generator.updateSomething();
+		generator.deleteSomething();
+		assertEquals(3, callback.count);
+	}
+
+	private static class CountingCallback implements MethodInterceptor {
+		private int count = 0;
+
+		@Override
+		public Object intercept(Object obj, Method method, Object[] args, MethodProxy proxy) throws Throwable {
+			count++;
+			return proxy.invokeSuper(obj, args);
+		}
+	}
+}
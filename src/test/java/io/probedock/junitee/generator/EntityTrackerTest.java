@@ -0,0 +1,269 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "entity-tracker")
+public class EntityTrackerTest {
+	private EntityManager em;
+	private PersistenceUnitUtil persistenceUnitUtil;
+	private Query query;
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setup() {
+		em = mock(EntityManager.class);
+		persistenceUnitUtil = mock(PersistenceUnitUtil.class);
+		query = mock(Query.class);
+
+		EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		Metamodel metamodel = mock(Metamodel.class);
+		EntityType entityType = mock(EntityType.class);
+		Type idType = mock(Type.class);
+		SingularAttribute idAttribute = mock(SingularAttribute.class);
+
+		when(em.getEntityManagerFactory()).thenReturn(emf);
+		when(emf.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+		when(em.getMetamodel()).thenReturn(metamodel);
+		when(metamodel.entity(String.class)).thenReturn(entityType);
+		when(entityType.getName()).thenReturn("Entity");
+		when(entityType.hasSingleIdAttribute()).thenReturn(true);
+		when(entityType.getIdType()).thenReturn(idType);
+		when(idType.getJavaType()).thenReturn(Long.class);
+		when(entityType.getId(Long.class)).thenReturn(idAttribute);
+		when(idAttribute.getName()).thenReturn("id");
+		when(em.createQuery(anyString())).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenReturn(query);
+	}
+
+	@Test
+	@ProbeTest(key = "5d0b7e2a93c1")
+	public void persistedEntitiesShouldBeDeletedWithOneBulkDeleteStatement() {
+		EntityTracker tracker = new EntityTracker(em);
+
+		tracker.getTrackingEntityManager().persist("first");
+		tracker.getTrackingEntityManager().persist("second");
+		verify(em).persist("first");
+		verify(em).persist("second");
+
+		when(persistenceUnitUtil.getIdentifier("first")).thenReturn(1L);
+		when(persistenceUnitUtil.getIdentifier("second")).thenReturn(2L);
+		tracker.resolveIdentifiers();
+
+		tracker.deleteTrackedEntities();
+
+		InOrder order = inOrder(em, query);
+		order.verify(em).createQuery("DELETE FROM Entity e WHERE e.id IN :ids");
+		order.verify(query).setParameter("ids", Arrays.<Object>asList(1L, 2L));
+		order.verify(query).executeUpdate();
+		verifyNoMoreInteractions(query);
+
+		// The tracked entities are forgotten once deleted
+		tracker.deleteTrackedEntities();
+		verify(em, times(1)).createQuery(anyString());
+	}
+
+	@Test
+	@ProbeTest(key = "a06f3c82d9b7")
+	public void mergedTrackersShouldDeleteTheirEntitiesWithTheSameStatement() {
+		EntityTracker first = new EntityTracker(em);
+		EntityTracker second = new EntityTracker(em);
+
+		when(persistenceUnitUtil.getIdentifier("first")).thenReturn(1L);
+		when(persistenceUnitUtil.getIdentifier("second")).thenReturn(2L);
+
+		first.getTrackingEntityManager().persist("first");
+		second.getTrackingEntityManager().persist("second");
+
+		first.merge(second);
+		second.deleteTrackedEntities();
+		first.deleteTrackedEntities();
+
+		verify(em, times(1)).createQuery("DELETE FROM Entity e WHERE e.id IN :ids");
+		verify(query).setParameter("ids", Arrays.<Object>asList(1L, 2L));
+		verify(query, times(1)).executeUpdate();
+	}
+
+	@Test
+	@ProbeTest(key = "e1a7c05d36b9")
+	public void flushAndClearShouldMovePendingEntitiesToTheRegistry() {
+		EntityTracker tracker = new EntityTracker(em);
+
+		when(persistenceUnitUtil.getIdentifier("first")).thenReturn(1L);
+		when(persistenceUnitUtil.getIdentifier("second")).thenReturn(2L);
+
+		tracker.getTrackingEntityManager().persist("first");
+		assertEquals(0, tracker.getTrackedCount());
+
+		tracker.getTrackingEntityManager().flush();
+		verify(em).flush();
+		assertEquals(1, tracker.getTrackedCount());
+
+		tracker.getTrackingEntityManager().persist("second");
+		tracker.getTrackingEntityManager().clear();
+		verify(em).clear();
+		assertArrayEquals(new long[] { 1L, 2L }, tracker.getTrackedIdentifiers());
+
+		// The entities are no longer referenced, nothing is resolved again
+		tracker.resolveIdentifiers();
+		verify(persistenceUnitUtil, times(1)).getIdentifier("first");
+		verify(persistenceUnitUtil, times(1)).getIdentifier("second");
+	}
+
+	@Test
+	@ProbeTest(key = "c93e1f5a08d4")
+	@SuppressWarnings("unchecked")
+	public void identifiersShouldBeKeptInTheRegistryAndTheRunsDeletedInReverseOrder() {
+		mockEntityType(Integer.class, "Child", "key");
+
+		EntityTracker tracker = new EntityTracker(em);
+
+		when(persistenceUnitUtil.getIdentifier("parent")).thenReturn(1L);
+		when(persistenceUnitUtil.getIdentifier("other parent")).thenReturn(2L);
+		when(persistenceUnitUtil.getIdentifier(7)).thenReturn(10);
+
+		tracker.getTrackingEntityManager().persist("parent");
+		tracker.getTrackingEntityManager().persist("other parent");
+		tracker.getTrackingEntityManager().persist(7);
+		tracker.resolveIdentifiers();
+
+		assertArrayEquals(new long[] { 1L, 2L }, tracker.getRegistry().toArray(String.class));
+		assertTrue(tracker.getRegistry().contains(Integer.class, 10L));
+
+		tracker.deleteTrackedEntities();
+
+		// The identifiers are given with the type of the identifier attribute
+		InOrder order = inOrder(em, query);
+		order.verify(em).createQuery("DELETE FROM Child e WHERE e.key IN :ids");
+		order.verify(query).setParameter("ids", Arrays.<Object>asList(10));
+		order.verify(em).createQuery("DELETE FROM Entity e WHERE e.id IN :ids");
+		order.verify(query).setParameter("ids", Arrays.<Object>asList(1L, 2L));
+		assertEquals(0, tracker.getRegistry().size(String.class));
+	}
+
+	@Test
+	@ProbeTest(key = "4b8d20e7c1f6")
+	public void interleavedEntityTypesShouldBeDeletedInReverseInsertionOrder() {
+		mockEntityType(Integer.class, "Parent", "id");
+
+		// The second child references the parent, persisted between the two children
+		final Set<Object> rows = new HashSet<Object>(Arrays.asList("child 1", "parent", "child 2"));
+		final Map<Object, Object> foreignKeys = new HashMap<>();
+		foreignKeys.put("child 2", "parent");
+
+		when(persistenceUnitUtil.getIdentifier("child 1")).thenReturn(1L);
+		when(persistenceUnitUtil.getIdentifier(1)).thenReturn(1);
+		when(persistenceUnitUtil.getIdentifier("child 2")).thenReturn(2L);
+
+		final Map<Object, Object> childrenById = new HashMap<>();
+		childrenById.put(1L, "child 1");
+		childrenById.put(2L, "child 2");
+
+		Query deleteChildren = deleteQuery(rows, foreignKeys, childrenById);
+		Query deleteParents = deleteQuery(rows, foreignKeys, Collections.<Object, Object>singletonMap(1, "parent"));
+		when(em.createQuery("DELETE FROM Entity e WHERE e.id IN :ids")).thenReturn(deleteChildren);
+		when(em.createQuery("DELETE FROM Parent e WHERE e.id IN :ids")).thenReturn(deleteParents);
+
+		EntityTracker tracker = new EntityTracker(em);
+
+		tracker.getTrackingEntityManager().persist("child 1");
+		tracker.getTrackingEntityManager().persist(1);
+		tracker.getTrackingEntityManager().persist("child 2");
+
+		tracker.deleteTrackedEntities();
+
+		assertTrue(rows.isEmpty());
+		assertEquals(0, tracker.getTrackedCount());
+	}
+
+	/**
+	 * Mock the metamodel of an additional entity type
+	 *
+	 * @param entityClass The entity class
+	 * @param entityName The entity name
+	 * @param idAttributeName The name of the identifier attribute
+	 */
+	@SuppressWarnings("unchecked")
+	private void mockEntityType(Class<?> entityClass, String entityName, String idAttributeName) {
+		EntityType entityType = mock(EntityType.class);
+		Type idType = mock(Type.class);
+		SingularAttribute idAttribute = mock(SingularAttribute.class);
+		when(em.getMetamodel().entity(entityClass)).thenReturn(entityType);
+		when(entityType.getName()).thenReturn(entityName);
+		when(entityType.hasSingleIdAttribute()).thenReturn(true);
+		when(entityType.getIdType()).thenReturn(idType);
+		when(idType.getJavaType()).thenReturn(entityClass);
+		when(entityType.getId(entityClass)).thenReturn(idAttribute);
+		when(idAttribute.getName()).thenReturn(idAttributeName);
+	}
+
+	/**
+	 * Build a delete query that removes rows and fails like a database when a remaining row
+	 * still references a deleted one.
+	 *
+	 * @param rows The remaining rows
+	 * @param foreignKeys The row referenced by each row
+	 * @param rowsById The rows deleted by the query per identifier
+	 * @return The query
+	 */
+	private Query deleteQuery(final Set<Object> rows, final Map<Object, Object> foreignKeys, final Map<Object, Object> rowsById) {
+		final Query deleteQuery = mock(Query.class);
+		final List<Object> ids = new ArrayList<>();
+
+		when(deleteQuery.setParameter(eq("ids"), any())).thenAnswer(new Answer<Query>() {
+			@Override
+			public Query answer(InvocationOnMock invocation) throws Throwable {
+				ids.clear();
+				ids.addAll((Collection<?>) invocation.getArguments()[1]);
+				return deleteQuery;
+			}
+		});
+
+		when(deleteQuery.executeUpdate()).thenAnswer(new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws Throwable {
+				for (Object id : ids) {
+					Object row = rowsById.get(id);
+					for (Map.Entry<Object, Object> foreignKey : foreignKeys.entrySet()) {
+						if (row.equals(foreignKey.getValue()) && rows.contains(foreignKey.getKey())) {
+							throw new PersistenceException(foreignKey.getKey() + " still references " + row);
+						}
+					}
+					rows.remove(row);
+				}
+				return ids.size();
+			}
+		});
+
+		return deleteQuery;
+	}
+}
@@ -0,0 +1,67 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "generated-id-registry")
+public class GeneratedIdRegistryTest {
+	@Test
+	@ProbeTest(key = "e0c5a7d13b92")
+	public void identifiersShouldBeKeptPerEntityTypeAcrossSegments() {
+		GeneratedIdRegistry registry = new GeneratedIdRegistry();
+
+		int count = GeneratedIdRegistry.SEGMENT_SIZE * 2 + 10;
+		for (int i = 0; i < count; i++) {
+			registry.register(Long.class, i * 2);
+		}
+		registry.register(String.class, 42);
+
+		assertEquals(Arrays.<Class<?>>asList(Long.class, String.class), new ArrayList<>(registry.getEntityTypes()));
+		assertEquals(count, registry.size(Long.class));
+		assertEquals((count - 1) * 2, registry.get(Long.class, count - 1));
+		assertEquals(count, registry.toArray(Long.class).length);
+		assertTrue(registry.contains(Long.class, GeneratedIdRegistry.SEGMENT_SIZE * 2));
+		assertFalse(registry.contains(Long.class, 3));
+		assertFalse(registry.contains(String.class, 0));
+		assertTrue(registry.contains(String.class, 42));
+		assertEquals(0, registry.size(Integer.class));
+
+		int chunks = 0;
+		int exported = 0;
+		for (List<Long> chunk : registry.chunks(Long.class, 1000)) {
+			assertEquals(Long.valueOf(chunks * 2000L), chunk.get(0));
+			exported += chunk.size();
+			chunks++;
+		}
+		assertEquals(count, exported);
+		assertEquals((count + 999) / 1000, chunks);
+	}
+
+	@Test
+	@ProbeTest(key = "7a1f3c58e6d0")
+	public void membershipShouldBeCheckedWhenIdentifiersAreNotRegisteredInOrder() {
+		GeneratedIdRegistry registry = new GeneratedIdRegistry();
+
+		registry.register(Long.class, 30).register(Long.class, 10).register(Long.class, 20);
+
+		assertTrue(registry.contains(Long.class, 10));
+		assertTrue(registry.contains(Long.class, 30));
+		assertFalse(registry.contains(Long.class, 40));
+
+		registry.register(Long.class, 40);
+		assertTrue(registry.contains(Long.class, 40));
+		assertArrayEquals(new long[] { 30, 10, 20, 40 }, registry.toArray(Long.class));
+
+		registry.clear(Long.class);
+		assertFalse(registry.contains(Long.class, 10));
+	}
+}
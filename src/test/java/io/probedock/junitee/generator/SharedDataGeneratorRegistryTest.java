@@ -0,0 +1,112 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import io.probedock.junitee.dummy.SharedReferenceGenerator;
+import io.probedock.junitee.dummy.SlowSharedGenerator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "shared-data-generator-registry")
+public class SharedDataGeneratorRegistryTest {
+	@After
+	public void releaseSharedDataGenerators() {
+		SlowSharedGenerator.release.countDown();
+		SharedDataGeneratorRegistry.releaseAll();
+	}
+
+	@Test
+	@ProbeTest(key = "9b4e17c2d5a0")
+	public void slowGenerationShouldOnlyBlockTheAcquisitionsOfTheSameDataGenerator() throws Throwable {
+		SlowSharedGenerator.started = new CountDownLatch(1);
+		SlowSharedGenerator.release = new CountDownLatch(1);
+		SlowSharedGenerator.generateCount = 0;
+		SharedReferenceGenerator.generateCount = 0;
+
+		final EntityManagerFactory slowFactory = mockFactory();
+		final EntityManagerFactory otherFactory = mockFactory();
+
+		final AtomicReference<IDataGenerator> first = new AtomicReference<>();
+		final AtomicReference<IDataGenerator> second = new AtomicReference<>();
+
+		Thread firstAcquisition = acquireInBackground(SlowSharedGenerator.class, slowFactory, first);
+		SlowSharedGenerator.started.await();
+
+		// The same data generator waits for the generation in progress
+		Thread secondAcquisition = acquireInBackground(SlowSharedGenerator.class, slowFactory, second);
+
+		// The other data generators and factories are not blocked by the generation in progress
+		Thread otherAcquisition = acquireInBackground(SharedReferenceGenerator.class, otherFactory, new AtomicReference<IDataGenerator>());
+		otherAcquisition.join(2000);
+		assertFalse(otherAcquisition.isAlive());
+		assertEquals(1, SharedReferenceGenerator.generateCount);
+
+		Thread otherFactoryAcquisition = acquireInBackground(SlowSharedGenerator.class, otherFactory, new AtomicReference<IDataGenerator>());
+		otherFactoryAcquisition.join(200);
+		assertEquals(2, SlowSharedGenerator.generateCount);
+
+		secondAcquisition.join(200);
+		assertTrue(secondAcquisition.isAlive());
+
+		SlowSharedGenerator.release.countDown();
+		firstAcquisition.join();
+		secondAcquisition.join();
+		otherFactoryAcquisition.join();
+
+		assertNotNull(first.get());
+		assertSame(first.get(), second.get());
+		assertEquals(2, SlowSharedGenerator.generateCount);
+		verify(slowFactory, times(1)).createEntityManager();
+	}
+
+	/**
+	 * Acquire a shared data generator from another thread
+	 *
+	 * @param dataGeneratorClass The data generator class
+	 * @param factory The entity manager factory
+	 * @param acquired The data generator acquired
+	 * @return The thread started
+	 */
+	private Thread acquireInBackground(final Class<? extends IDataGenerator> dataGeneratorClass, final EntityManagerFactory factory,
+		final AtomicReference<IDataGenerator> acquired) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					acquired.set(SharedDataGeneratorRegistry.acquire(dataGeneratorClass, factory));
+				}
+				catch (DataGeneratorException dge) {
+					throw new RuntimeException(dge);
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * @return A factory of mocked entity managers
+	 */
+	private EntityManagerFactory mockFactory() {
+		EntityManagerFactory factory = mock(EntityManagerFactory.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		EntityTransaction transaction = mock(EntityTransaction.class);
+
+		when(factory.createEntityManager()).thenReturn(entityManager);
+		when(entityManager.getTransaction()).thenReturn(transaction);
+		when(entityManager.isOpen()).thenReturn(true);
+
+		return factory;
+	}
+}
@@ -0,0 +1,104 @@
+package io.probedock.junitee.generator;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import io.probedock.junitee.dependency.DependencyInjector;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.PersistenceUnitUtil;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.Metamodel;
+import javax.persistence.metamodel.SingularAttribute;
+import javax.persistence.metamodel.Type;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "streaming-data-generator")
+public class StreamingDataGeneratorTest {
+	@Test
+	@ProbeTest(key = "b41c9e07d2f8")
+	@SuppressWarnings("unchecked")
+	public void entitiesShouldBePersistedInChunksAndOnlyTheirIdentifiersKept() throws Throwable {
+		EntityManager em = mock(EntityManager.class);
+		EntityTransaction transaction = mock(EntityTransaction.class);
+		EntityManagerFactory emf = mock(EntityManagerFactory.class);
+		PersistenceUnitUtil persistenceUnitUtil = mock(PersistenceUnitUtil.class);
+		Metamodel metamodel = mock(Metamodel.class);
+		EntityType entityType = mock(EntityType.class);
+		Type idType = mock(Type.class);
+		SingularAttribute idAttribute = mock(SingularAttribute.class);
+		Query query = mock(Query.class);
+
+		when(em.getTransaction()).thenReturn(transaction);
+		when(em.getEntityManagerFactory()).thenReturn(emf);
+		when(emf.getPersistenceUnitUtil()).thenReturn(persistenceUnitUtil);
+		when(em.getMetamodel()).thenReturn(metamodel);
+		when(metamodel.entity(Integer.class)).thenReturn(entityType);
+		when(entityType.getName()).thenReturn("Entity");
+		when(entityType.hasSingleIdAttribute()).thenReturn(true);
+		when(entityType.getIdType()).thenReturn(idType);
+		when(idType.getJavaType()).thenReturn(Long.class);
+		when(entityType.getId(Long.class)).thenReturn(idAttribute);
+		when(idAttribute.getName()).thenReturn("id");
+		when(em.createQuery(anyString())).thenReturn(query);
+		when(query.setParameter(anyString(), any())).thenReturn(query);
+
+		for (int i = 0; i < 5; i++) {
+			when(persistenceUnitUtil.getIdentifier(i)).thenReturn((long) i + 100);
+		}
+
+		StreamingDataGenerator<Integer> generator = new StreamingDataGenerator<Integer>() {
+			@Override
+			protected Iterator<Integer> entities() {
+				return new Iterator<Integer>() {
+					private int next = 0;
+
+					@Override
+					public boolean hasNext() {
+						return next < 5;
+					}
+
+					@Override
+					public Integer next() {
+						return next++;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		}.chunkSize(2).commitEvery(2);
+
+		DependencyInjector.inject(generator, em, true);
+
+		generator.generate();
+
+		verify(em, times(5)).persist(any());
+		verify(em, times(3)).flush();
+		verify(em, times(5)).detach(any());
+		verify(em, never()).clear();
+		verify(transaction, times(1)).commit();
+		verify(transaction, times(1)).begin();
+		assertEquals(5, generator.getGeneratedCount());
+		assertArrayEquals(new long[] { 100L, 101L, 102L, 103L, 104L }, generator.getGeneratedIds());
+		assertTrue(generator.getGeneratedIdRegistry().contains(Integer.class, 102L));
+
+		generator.cleanup();
+
+		verify(em).createQuery("DELETE FROM Entity e WHERE e.id IN :ids");
+		verify(query).setParameter("ids", Arrays.<Object>asList(100L, 101L, 102L, 103L, 104L));
+		verify(query).executeUpdate();
+		assertEquals(0, generator.getGeneratedCount());
+	}
+}
@@ -0,0 +1,74 @@
+package io.probedock.junitee.utils;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.spi.PersistenceProvider;
+import javax.persistence.spi.PersistenceProviderResolver;
+import javax.persistence.spi.PersistenceProviderResolverHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "entity-manager-factory-registry")
+public class EntityManagerFactoryRegistryTest {
+	private PersistenceProvider provider;
+
+	@Before
+	public void setup() {
+		provider = mock(PersistenceProvider.class);
+
+		when(provider.createEntityManagerFactory(anyString(), anyMap())).thenAnswer(new Answer<EntityManagerFactory>() {
+			@Override
+			public EntityManagerFactory answer(InvocationOnMock invocation) throws Throwable {
+				EntityManagerFactory factory = mock(EntityManagerFactory.class);
+				when(factory.isOpen()).thenReturn(true);
+				return factory;
+			}
+		});
+
+		PersistenceProviderResolverHolder.setPersistenceProviderResolver(new PersistenceProviderResolver() {
+			@Override
+			public List<PersistenceProvider> getPersistenceProviders() {
+				return Collections.singletonList(provider);
+			}
+
+			@Override
+			public void clearCachedProviders() {}
+		});
+	}
+
+	@After
+	public void teardown() {
+		EntityManagerFactoryRegistry.closeAll();
+		PersistenceProviderResolverHolder.setPersistenceProviderResolver(null);
+	}
+
+	@Test
+	@ProbeTest(key = "0c7e3b9a5d14")
+	@SuppressWarnings("unchecked")
+	public void factoriesShouldBeCreatedOncePerPersistenceUnitAndProperties() {
+		Map<String, String> properties = Collections.singletonMap("javax.persistence.jdbc.url", "jdbc:h2:mem:other");
+
+		EntityManagerFactory factory = EntityManagerFactoryRegistry.getFactory("test");
+
+		assertSame(factory, EntityManagerFactoryRegistry.getFactory("test", null));
+		assertNotSame(factory, EntityManagerFactoryRegistry.getFactory("test", properties));
+		assertSame(EntityManagerFactoryRegistry.getFactory("test", properties), EntityManagerFactoryRegistry.getFactory("test", properties));
+		verify(provider, times(2)).createEntityManagerFactory(anyString(), anyMap());
+
+		EntityManagerFactoryRegistry.closeAll();
+		verify(factory).close();
+	}
+}
@@ -0,0 +1,282 @@
+package io.probedock.junitee.utils;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import io.probedock.junitee.annotations.EntityManagerName;
+import io.probedock.junitee.generator.IDataGenerator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "entity-manager-holder")
+public class EntityManagerHolderTest {
+	@Test
+	@ProbeTest(key = "6f2b8d0e4a73")
+	public void entityManagersShouldOnlyBeCreatedOnFirstRetrieval() {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		when(defaultFactory.createEntityManager()).thenReturn(entityManager);
+
+		EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).build();
+
+		verify(defaultFactory, never()).createEntityManager();
+		assertTrue(holder.getManagers().isEmpty());
+
+		assertSame(entityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+		assertSame(entityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+
+		verify(defaultFactory, times(1)).createEntityManager();
+		assertEquals(1, holder.getManagers().size());
+	}
+
+	@Test
+	@ProbeTest(key = "b8e0a5c3172d")
+	public void lazyFactoriesShouldOnlyBeCreatedWhenTheirEntityManagerIsRetrieved() {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+		final EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		final int[] supplierCalls = new int[] { 0 };
+
+		EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).addFactory("second", new Callable<EntityManagerFactory>() {
+			@Override
+			public EntityManagerFactory call() throws Exception {
+				supplierCalls[0]++;
+				return secondFactory;
+			}
+		}).build();
+
+		holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class);
+		assertEquals(0, supplierCalls[0]);
+
+		assertSame(secondEntityManager, holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class));
+		assertSame(secondEntityManager, holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class));
+		assertEquals(1, supplierCalls[0]);
+		assertEquals(2, holder.getManagers().size());
+	}
+
+	@Test
+	@ProbeTest(key = "3a9f61d2c8e5")
+	public void asyncBuildShouldCreateTheFactoriesInBackgroundAndOnlyWaitForTheRetrievedOne() throws Exception {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		when(defaultFactory.createEntityManager()).thenReturn(entityManager);
+
+		final EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		final CountDownLatch secondStarted = new CountDownLatch(1);
+		final CountDownLatch secondReleased = new CountDownLatch(1);
+
+		EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).addFactory("second", new Callable<EntityManagerFactory>() {
+			@Override
+			public EntityManagerFactory call() throws Exception {
+				secondStarted.countDown();
+				secondReleased.await(5, TimeUnit.SECONDS);
+				return secondFactory;
+			}
+		}).buildAsync();
+
+		assertTrue(holder.isReady());
+		assertTrue("The second factory should be created in background", secondStarted.await(5, TimeUnit.SECONDS));
+
+		// The default entity manager does not wait for the second factory
+		assertSame(entityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+
+		secondReleased.countDown();
+		assertSame(secondEntityManager, holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class));
+
+		verify(defaultFactory, times(1)).createEntityManager();
+		verify(secondFactory, times(1)).createEntityManager();
+	}
+
+	@Test
+	@ProbeTest(key = "8b2e5f0c9d13")
+	public void failedAsyncCreationShouldBeRetriedOnTheNextRetrieval() throws Exception {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+
+		final EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		final int[] supplierCalls = new int[] { 0 };
+
+		EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).addFactory("second", new Callable<EntityManagerFactory>() {
+			@Override
+			public EntityManagerFactory call() throws Exception {
+				if (++supplierCalls[0] == 1) {
+					throw new IllegalStateException("The database is not ready");
+				}
+				return secondFactory;
+			}
+		}).buildAsync();
+
+		try {
+			holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class);
+			fail("The failure of the background creation should be reported");
+		}
+		catch (IllegalStateException ise) {
+			assertEquals("Unable to create the entity manager second.", ise.getMessage());
+		}
+
+		assertSame(secondEntityManager, holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class));
+		assertEquals(2, supplierCalls[0]);
+	}
+
+	@Test
+	@ProbeTest(key = "a07d3c5e91f4")
+	public void lazyFactoryCreationShouldNotBlockTheOtherPersistenceUnits() throws Exception {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+		EntityManager entityManager = mock(EntityManager.class);
+		when(defaultFactory.createEntityManager()).thenReturn(entityManager);
+
+		final EntityManagerFactory secondFactory = mock(EntityManagerFactory.class);
+		EntityManager secondEntityManager = mock(EntityManager.class);
+		when(secondFactory.createEntityManager()).thenReturn(secondEntityManager);
+
+		final CountDownLatch secondStarted = new CountDownLatch(1);
+		final CountDownLatch secondReleased = new CountDownLatch(1);
+		final int[] supplierCalls = new int[] { 0 };
+
+		final EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).addFactory("second", new Callable<EntityManagerFactory>() {
+			@Override
+			public EntityManagerFactory call() throws Exception {
+				supplierCalls[0]++;
+				secondStarted.countDown();
+				secondReleased.await(5, TimeUnit.SECONDS);
+				return secondFactory;
+			}
+		}).build();
+
+		final EntityManager[] retrieved = new EntityManager[2];
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			threads[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					retrieved[index] = holder.retrieveEntityManagerFromDataGenerator(SecondGenerator.class);
+				}
+			});
+			threads[i].start();
+		}
+
+		assertTrue("The second factory should be in creation", secondStarted.await(5, TimeUnit.SECONDS));
+
+		// The default entity manager does not wait for the creation of the second factory
+		assertSame(entityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+
+		secondReleased.countDown();
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		assertSame(secondEntityManager, retrieved[0]);
+		assertSame(secondEntityManager, retrieved[1]);
+		assertEquals(1, supplierCalls[0]);
+		verify(secondFactory, times(1)).createEntityManager();
+	}
+
+	@Test
+	@ProbeTest(key = "d41c7e9a0b56")
+	public void perThreadHolderShouldHandOutOneEntityManagerPerThread() throws Exception {
+		EntityManagerFactory defaultFactory = mock(EntityManagerFactory.class);
+		EntityManager mainEntityManager = mock(EntityManager.class);
+		EntityManager otherEntityManager = mock(EntityManager.class);
+		when(defaultFactory.createEntityManager()).thenReturn(mainEntityManager, otherEntityManager);
+
+		final EntityManagerHolder holder = new EntityManagerHolder(defaultFactory).usePerThreadEntityManagers().build();
+
+		assertSame(mainEntityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+
+		final EntityManager[] retrieved = new EntityManager[2];
+		Thread other = new Thread() {
+			@Override
+			public void run() {
+				retrieved[0] = holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class);
+				retrieved[1] = holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class);
+			}
+		};
+		other.start();
+		other.join(5000);
+
+		assertSame(otherEntityManager, retrieved[0]);
+		assertSame(otherEntityManager, retrieved[1]);
+		assertSame(mainEntityManager, holder.retrieveEntityManagerFromDataGenerator(DefaultGenerator.class));
+		assertEquals(1, holder.getManagers().size());
+		verify(defaultFactory, times(2)).createEntityManager();
+	}
+
+	@Test
+	@ProbeTest(key = "85b3e20f9c1a")
+	public void workerIsolationShouldDeriveTheFactoryPropertiesFromTheWorkerIdentifier() {
+		String previous = System.getProperty(EntityManagerHolder.WORKER_ID_PROPERTY);
+		System.setProperty(EntityManagerHolder.WORKER_ID_PROPERTY, "3");
+
+		try {
+			EntityManagerHolder holder = new EntityManagerHolder("default", null)
+				.isolateWorkers("hibernate.default_schema", "test_%s")
+				.provisionWorkerSchemas()
+				.build();
+
+			Map<String, String> properties = new HashMap<>();
+			properties.put("javax.persistence.jdbc.user", "sa");
+
+			Map<String, ?> workerProperties = holder.workerProperties(properties);
+
+			assertEquals("test_3", workerProperties.get("hibernate.default_schema"));
+			assertEquals("sa", workerProperties.get("javax.persistence.jdbc.user"));
+			assertEquals("create", workerProperties.get("javax.persistence.schema-generation.database.action"));
+			assertEquals("true", workerProperties.get("javax.persistence.schema-generation.create-database-schemas"));
+			assertFalse(properties.containsKey("hibernate.default_schema"));
+
+			assertNull(new EntityManagerHolder("default", null).build().workerProperties(null));
+
+			// The surefire fork number is not a system property, the worker identifier must be defined explicitly
+			System.clearProperty(EntityManagerHolder.WORKER_ID_PROPERTY);
+			System.setProperty("surefire.forkNumber", "2");
+
+			try {
+				holder.workerProperties(properties);
+				fail("The worker identifier should be mandatory to isolate the workers");
+			}
+			catch (IllegalStateException ise) {
+				assertTrue(ise.getMessage().contains(EntityManagerHolder.WORKER_ID_PROPERTY));
+			}
+		}
+		finally {
+			System.clearProperty("surefire.forkNumber");
+
+			if (previous == null) {
+				System.clearProperty(EntityManagerHolder.WORKER_ID_PROPERTY);
+			}
+			else {
+				System.setProperty(EntityManagerHolder.WORKER_ID_PROPERTY, previous);
+			}
+		}
+	}
+
+	private static class DefaultGenerator implements IDataGenerator {
+		@Override public void generate() {}
+		@Override public void cleanup() {}
+	}
+
+	@EntityManagerName("second")
+	private static class SecondGenerator implements IDataGenerator {
+		@Override public void generate() {}
+		@Override public void cleanup() {}
+	}
+}
@@ -2,9 +2,12 @@ package io.probedock.junitee.utils;
 
 import io.probedock.client.annotations.ProbeTest;
 import io.probedock.client.annotations.ProbeTestClass;
+import java.util.HashMap;
+import java.util.Map;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 /**
@@ -16,6 +19,10 @@ public class InflectorHelperTest {
 	
 	public static class CustomDao implements ICustomDao {}
 	
+	public interface IMissingImplementation {}
+	
+	public interface ILateImplementation {}
+	
 	@Test
 	@ProbeTest(key = "4cad7922ddfe")
 	public void itShouldBePossibleToGetImplementationClassForGivenInterfaceThatFollowsCodingConventionNames() throws Throwable {
@@ -46,6 +53,55 @@ public class InflectorHelperTest {
 		noValidClassAsserter(PublicClass.class);
 	}
 	
+	@Test
+	@ProbeTest(key = "d41c7b2e90a6")
+	public void resolvedEmptyConstructorShouldBeTheSameForTheInterfaceAndTheImplementationClass() throws Throwable {
+		assertEquals(CustomDao.class.getConstructor(), InflectorHelper.retrieveInstantiableConstructor(ICustomDao.class));
+		assertSame(InflectorHelper.retrieveInstantiableConstructor(ICustomDao.class), InflectorHelper.retrieveInstantiableConstructor(ICustomDao.class));
+	}
+	
+	@Test
+	@ProbeTest(key = "6f0a3c95be21")
+	public void failedResolutionShouldBeReportedEachTimeTheClassIsResolved() {
+		CountingClassLoader classLoader = new CountingClassLoader(InflectorHelper.class.getClassLoader());
+		Thread thread = Thread.currentThread();
+		ClassLoader contextClassLoader = thread.getContextClassLoader();
+
+		thread.setContextClassLoader(classLoader);
+		try {
+			noValidClassAsserter(IMissingImplementation.class);
+			noValidClassAsserter(IMissingImplementation.class);
+		}
+		finally {
+			thread.setContextClassLoader(contextClassLoader);
+		}
+
+		// The second resolution is served from the cache of the failed resolutions
+		assertEquals(1, classLoader.count(InflectorHelperTest.class.getName() + "$MissingImplementation"));
+	}
+	
+	@Test
+	@ProbeTest(key = "8e25d1f04ab3")
+	public void failedResolutionShouldNotBeReusedWithAnotherContextClassLoader() throws Throwable {
+		noValidClassAsserter(ILateImplementation.class);
+
+		// The implementation becomes visible through another context class loader
+		ClassLoader classLoader = new AliasClassLoader(InflectorHelper.class.getClassLoader(),
+			InflectorHelperTest.class.getName() + "$LateImplementation", CustomDao.class);
+		Thread thread = Thread.currentThread();
+		ClassLoader contextClassLoader = thread.getContextClassLoader();
+
+		thread.setContextClassLoader(classLoader);
+		try {
+			assertEquals(CustomDao.class, InflectorHelper.retrieveInstantiableClassName(ILateImplementation.class));
+		}
+		finally {
+			thread.setContextClassLoader(contextClassLoader);
+		}
+
+		noValidClassAsserter(ILateImplementation.class);
+	}
+	
 	private void noValidClassAsserter(Class cl) {
 		try { 
 			InflectorHelper.retrieveInstantiableClassName(cl); 
@@ -63,4 +119,45 @@ public class InflectorHelperTest {
 	class PackageClass {}
 	
 	public class PublicClass {}
+
+	/**
+	 * Class loader counting the classes it is asked to load
+	 */
+	private static class CountingClassLoader extends ClassLoader {
+		private final Map<String, Integer> counts = new HashMap<>();
+
+		private CountingClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		@Override
+		public Class<?> loadClass(String name) throws ClassNotFoundException {
+			counts.put(name, count(name) + 1);
+			return super.loadClass(name);
+		}
+
+		private int count(String name) {
+			Integer count = counts.get(name);
+			return count == null ? 0 : count;
+		}
+	}
+
+	/**
+	 * Class loader giving an existing class for a missing class name
+	 */
+	private static class AliasClassLoader extends ClassLoader {
+		private final String name;
+		private final Class<?> cl;
+
+		private AliasClassLoader(ClassLoader parent, String name, Class<?> cl) {
+			super(parent);
+			this.name = name;
+			this.cl = cl;
+		}
+
+		@Override
+		public Class<?> loadClass(String name) throws ClassNotFoundException {
+			return this.name.equals(name) ? cl : super.loadClass(name);
+		}
+	}
 }
@@ -0,0 +1,52 @@
+package io.probedock.junitee.utils;
+
+import io.probedock.client.annotations.ProbeTest;
+import io.probedock.client.annotations.ProbeTestClass;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Laurent Prevost <laurent.prevost@probedock.io>
+ */
+@ProbeTestClass(tags = "shutdown-sequence")
+public class ShutdownSequenceTest {
+	@Test
+	@ProbeTest(key = "6b1d9e4f20a7")
+	public void tasksShouldRunInThePhaseOrderWhateverTheRegistrationOrder() {
+		final List<String> order = new ArrayList<>();
+		final boolean[] failed = new boolean[] { false };
+
+		ShutdownSequence.register(ShutdownSequence.Phase.CLOSE_FACTORIES, recorder(order, "close"));
+		ShutdownSequence.register(ShutdownSequence.Phase.RELEASE_SHARED_DATA, new Runnable() {
+			@Override
+			public void run() {
+				order.add("release");
+
+				// Only fail once, the tasks are run again when the JVM of the tests shuts down
+				if (!failed[0]) {
+					failed[0] = true;
+					throw new IllegalStateException("Failing shutdown task");
+				}
+			}
+		});
+		ShutdownSequence.register(ShutdownSequence.Phase.DRAIN_CLEANUPS, recorder(order, "drain"));
+
+		ShutdownSequence.run();
+
+		// A failing task does not prevent the next phases from running
+		assertEquals(Arrays.asList("drain", "release", "close"), order);
+	}
+
+	private static Runnable recorder(final List<String> order, final String name) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				order.add(name);
+			}
+		};
+	}
+}